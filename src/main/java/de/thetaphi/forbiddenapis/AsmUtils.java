@@ -17,12 +17,15 @@
 package de.thetaphi.forbiddenapis;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
@@ -37,42 +40,39 @@ public final class AsmUtils {
   private static final String REGEX_META_CHARS = ".^$+{}[]|()\\";
   
   /** Package prefixes of documented Java API (extracted from Javadocs of Java 8). */
-  private static final Pattern PORTABLE_RUNTIME_PACKAGE_PATTERN = makePkgPrefixPattern("java", "javax", "org.ietf.jgss", "org.omg", "org.w3c.dom", "org.xml.sax");
+  private static final ClassPatternMatcher PORTABLE_RUNTIME_PACKAGES = makePkgPrefixMatcher("java", "javax", "org.ietf.jgss", "org.omg", "org.w3c.dom", "org.xml.sax");
   
-  /** Pattern that matches all module names, which are shipped by default in Java.
+  /** Matches all module names, which are shipped by default in Java.
    * (see: {@code http://openjdk.java.net/projects/jigsaw/spec/sotms/}):
    * The remaining platform modules will share the 'java.' name prefix and are likely to include,
    * e.g., java.sql for database connectivity, java.xml for XML processing, and java.logging for
    * logging. Modules that are not defined in the Java SE 9 Platform Specification but instead
    * specific to the JDK will, by convention, share the 'jdk.' name prefix.
    */
-  private static final Pattern RUNTIME_MODULES_PATTERN = makePkgPrefixPattern("java", "jdk");
+  private static final ClassPatternMatcher RUNTIME_MODULES = makePkgPrefixMatcher("java", "jdk");
   
-  private static Pattern makePkgPrefixPattern(String... prefixes) {
-    final StringBuilder sb = new StringBuilder();
-    boolean first = true;
+  private static ClassPatternMatcher makePkgPrefixMatcher(String... prefixes) {
+    final ClassPatternMatcher matcher = new ClassPatternMatcher();
     for (final String p : prefixes) {
-      sb.append(first ? '(' : '|').append(Pattern.quote(p));
-      first = false;
+      matcher.add(new ClassPatternRule(p + ".**", null));
     }
-    sb.append(")").append(Pattern.quote(".")).append(".*");
-    return Pattern.compile(sb.toString());
+    return matcher;
   }
   
   private static boolean isRegexMeta(char c) {
     return REGEX_META_CHARS.indexOf(c) != -1;
   }
 
-  /** Returns true, if the given binary class name (dotted) is part of the documented and portable Java APIs. */
+  /** Returns true, if the given class name (binary or internal name) is part of the documented and portable Java APIs. */
   public static boolean isPortableRuntimeClass(String className) {
-    return PORTABLE_RUNTIME_PACKAGE_PATTERN.matcher(className).matches();
+    return PORTABLE_RUNTIME_PACKAGES.match(className) != null;
   }
   
   /** Returns true, if the given Java 9 module name is part of the runtime (no custom 3rd party module).
    * @param module the module name or {@code null}, if in unnamed module
    */
   public static boolean isRuntimeModule(String module) {
-    return module != null && RUNTIME_MODULES_PATTERN.matcher(module).matches();
+    return module != null && RUNTIME_MODULES.match(module) != null;
   }
   
   /** Converts a binary class name (dotted) to the JVM internal one (slashed). Only accepts valid class names, no arrays. */
@@ -164,7 +164,7 @@ public final class AsmUtils {
   
   /** This method is used to read the whole stream into byte array. This allows patching.
    * It also works around a bug in ASM 6.1 (https://gitlab.ow2.org/asm/asm/issues/317816). */
-  private static byte[] readStream(final InputStream in) throws IOException {
+  static byte[] readStream(final InputStream in) throws IOException {
     final ByteArrayOutputStream bos = new ByteArrayOutputStream();
     final byte[] data = new byte[4096];
     int bytesRead;
@@ -174,13 +174,67 @@ public final class AsmUtils {
     return bos.toByteArray();
   }
   
+  /** Reads the whole file into a byte array of its exact size, so no buffers have to grow. */
+  static byte[] readFile(final File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return readStream(in, file.length());
+    } finally {
+      in.close();
+    }
+  }
+  
+  /** Reads the whole stream into a byte array, which has exactly the expected size (if it's correct). A negative size means unknown. */
+  static byte[] readStream(final InputStream in, final long expectedSize) throws IOException {
+    if (expectedSize < 0L || expectedSize > Integer.MAX_VALUE) {
+      return readStream(in);
+    }
+    final byte[] data = new byte[(int) expectedSize];
+    int pos = 0, bytesRead;
+    while (pos < data.length && (bytesRead = in.read(data, pos, data.length - pos)) != -1) {
+      pos += bytesRead;
+    }
+    if (pos < data.length) {
+      // stream is shorter than expected (e.g., file was truncated in the meantime)
+      return Arrays.copyOf(data, pos);
+    }
+    final int next = in.read();
+    if (next == -1) {
+      return data;
+    }
+    // stream is longer than expected (e.g., file was appended in the meantime)
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(data);
+    bos.write(next);
+    bos.write(readStream(in));
+    return bos.toByteArray();
+  }
+  
   /** Utility method to load class files of later Java versions by patching them, so ASM can read them. Does nothing at the moment. */
+  public static ClassReader readAndPatchClass(InputStream in) throws IOException {
+    return readAndPatchClass(readStream(in));
+  }
+  
+  /** Utility method to load class files of later Java versions by patching them, so ASM can read them. Does nothing at the moment.
+   * The given byte array may be modified! */
   @SuppressForbidden
   @SuppressWarnings("unused")
-  public static ClassReader readAndPatchClass(InputStream in) throws IOException {
-    final byte[] bytecode = readStream(in);
+  public static ClassReader readAndPatchClass(byte[] bytecode) {
     if (false) patchClassMajorVersion(bytecode, Opcodes.V10 + 1, Opcodes.V10);
     return new ClassReader(bytecode);
   }
+  
+  /** Reads a class file of the runtime, which is too recent for ASM. Only the signatures of runtime classes are
+   * needed (their code is never visited), so the class file version is lowered to the latest one supported by ASM.
+   * Throws {@link IllegalArgumentException}, if ASM still can't parse it. The given byte array may be modified! */
+  static ClassReader readAndPatchRuntimeClass(byte[] bytecode) {
+    if (bytecode.length >= 8) {
+      final ByteBuffer buf = ByteBuffer.wrap(bytecode).order(ByteOrder.BIG_ENDIAN);
+      if (buf.getShort(6) > Opcodes.V10) {
+        buf.putShort(6, (short) Opcodes.V10);
+      }
+    }
+    return new ClassReader(bytecode);
+  }
 
 }
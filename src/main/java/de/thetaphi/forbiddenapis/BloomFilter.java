@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+/** Simple bloom filter over strings with two hash functions derived from {@link String#hashCode()}.
+ * {@link #mightContain(String)} never returns {@code false} for an added string, but may return
+ * {@code true} for strings that were never added. Not thread safe while adding. */
+final class BloomFilter {
+
+  private final long[] bits;
+  private final int mask;
+
+  /** Creates a filter with {@code 2^log2Bits} bits. */
+  BloomFilter(int log2Bits) {
+    if (log2Bits < 6 || log2Bits > 30) {
+      throw new IllegalArgumentException("Invalid size: " + log2Bits);
+    }
+    this.bits = new long[1 << (log2Bits - 6)];
+    this.mask = (1 << log2Bits) - 1;
+  }
+
+  private static int secondHash(int h) {
+    return Integer.rotateLeft(h * 0x9E3779B9, 16);
+  }
+
+  private void set(int h) {
+    final int bit = h & mask;
+    bits[bit >>> 6] |= 1L << bit;
+  }
+
+  private boolean get(int h) {
+    final int bit = h & mask;
+    return (bits[bit >>> 6] & (1L << bit)) != 0L;
+  }
+
+  public void add(String s) {
+    final int h = s.hashCode();
+    set(h);
+    set(secondHash(h));
+  }
+
+  public boolean mightContain(String s) {
+    final int h = s.hashCode();
+    return get(h) && get(secondHash(h));
+  }
+
+}
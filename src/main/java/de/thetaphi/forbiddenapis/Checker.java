@@ -18,10 +18,15 @@
 
 package de.thetaphi.forbiddenapis;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.annotation.Annotation;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
@@ -29,9 +34,17 @@ import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -40,27 +53,38 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Type;
 
 /**
  * Forbidden APIs checker class.
  */
-public final class Checker implements RelatedClassLookup, Constants {
+public final class Checker implements RelatedClassLookup, Constants, Closeable {
   
   public static enum Option {
     FAIL_ON_MISSING_CLASSES,
     FAIL_ON_VIOLATION,
     FAIL_ON_UNRESOLVABLE_SIGNATURES,
-    DISABLE_CLASSLOADING_CACHE
+    DISABLE_CLASSLOADING_CACHE,
+    PIPELINED_SCAN,
+    STREAMING_SCAN
   }
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
   public final boolean isSupportedJDK;
   
   private final long start;
   private final NavigableSet<String> runtimePaths;
+  /** Decides if classes come from the runtime, cached by their classpath root */
+  private final RuntimeOriginCache runtimeOrigins;
     
   final Logger logger;
   
@@ -68,15 +92,65 @@ public final class Checker implements RelatedClassLookup, Constants {
   final java.lang.reflect.Method method_Class_getModule, method_Module_getName;
   final EnumSet<Option> options;
   
-  /** Classes to check: key is the binary name (dotted) */
-  final Map<String,ClassSignature> classesToCheck = new HashMap<String,ClassSignature>();
+  /** Classes to check: key is the binary name (dotted), iteration order is the order the classes were added */
+  final Map<String,ClassSignature> classesToCheck = new LinkedHashMap<String,ClassSignature>();
+  /** Classes to check in pipelined mode, which are not yet read (see {@link Option#PIPELINED_SCAN}) */
+  final List<ClassSource> pendingClassesToCheck = new ArrayList<ClassSource>();
+  /** As long as this is true, not all classes to check are known and class lookups must not fail */
+  private volatile boolean registrationPending = false;
+  /** Set after scanning in pipelined mode, which releases the class files, so the classes can't be checked again */
+  private boolean pipelineCompleted = false;
   /** Cache of loaded classes: key is the binary name (dotted) */
-  final Map<String,ClassSignature> classpathClassCache = new HashMap<String,ClassSignature>();
+  final ClassCache classpathClassCache = new ClassCache();
+  
+  private final ClassCache.Loader classLoaderLoader = new ClassCache.Loader() {
+    @Override
+    public ClassSignature load(String clazz) throws IOException {
+      return loadClassFromClassLoader(clazz);
+    }
+  };
   
   final Signatures forbiddenSignatures;
   
+  /** Verdicts computed by the {@link ClassScanner}s, shared by all classes of this run */
+  final VerdictCache verdictCache = new VerdictCache();
+  
+  /** Canonical instances of all names, shared by all classes of this run */
+  final SymbolTable symbols = new SymbolTable();
+  
+  /** Packages of the runtime, created on first use (see {@link #getRuntimePackageIndex()}) */
+  private RuntimePackageIndex runtimePackageIndex;
+  private boolean runtimePackageIndexCreated = false;
+  
+  /** Classes of the classpath, created on first use (see {@link #getClasspathIndex()}) */
+  private ClasspathIndex classpathIndex;
+  private boolean classpathIndexCreated = false;
+  
+  /** Java 9+ runtime image, created on first use (see {@link #getRuntimeImage()}) */
+  private RuntimeImageReader runtimeImage;
+  private boolean runtimeImageCreated = false;
+  
+  /** runtime classes too recent for ASM, which were parsed after patching their version or were loaded by reflection */
+  private final AtomicInteger patchedRuntimeClasses = new AtomicInteger(), reflectedRuntimeClasses = new AtomicInteger();
+  
+  /** Persistent cache of class signatures (see {@link #setCacheDirectory(File)}), {@code null} if disabled */
+  private volatile SignatureCache signatureCache;
+  
+  /** File with the results of the previous run (see {@link #setIncrementalFile(File)}), {@code null} if disabled */
+  private File incrementalFile = null;
+  
+  /** JAR files of classes, which are not read through the {@link #classpathIndex}; closed by {@link #close()} */
+  final JarFilePool jarFilePool = new JarFilePool();
+  
+  /** Readers of archives to check, so their classes can be read again (see {@link #addArchiveToCheck(File)}); closed by {@link #close()} */
+  private final List<JarReader> archiveReaders = Collections.synchronizedList(new ArrayList<JarReader>());
+  private final JarReader.InflaterPool archiveInflaters = new JarReader.InflaterPool();
+  
   /** descriptors (not internal names) of all annotations that suppress */
   final Set<String> suppressAnnotations = new LinkedHashSet<String>();
+  
+  /** number of threads used to scan classes, 1 means sequential scanning in the calling thread */
+  private int threads = Runtime.getRuntime().availableProcessors();
     
   public Checker(Logger logger, ClassLoader loader, Option... options) {
     this(logger, loader, (options.length == 0) ? EnumSet.noneOf(Option.class) : EnumSet.copyOf(Arrays.asList(options)));
@@ -156,6 +230,7 @@ public final class Checker implements RelatedClassLookup, Constants {
       }
     }
     this.runtimePaths = runtimePaths;
+    this.runtimeOrigins = new RuntimeOriginCache(runtimePaths);
     // logger.info("Runtime paths: " + runtimePaths);
     
     if (isSupportedJDK) {
@@ -183,6 +258,13 @@ public final class Checker implements RelatedClassLookup, Constants {
     this.forbiddenSignatures = new Signatures(this);
   }
   
+  /** Logs a debug message, if the logger supports this (see {@link DebugLogger}). */
+  private void debug(String msg) {
+    if (logger instanceof DebugLogger) {
+      ((DebugLogger) logger).debug(msg);
+    }
+  }
+  
   /** Loads the class from Java9's module system and uses reflection to get methods and fields. */
   private ClassSignature loadClassFromJigsaw(String classname) throws IOException {
     if (method_Class_getModule == null || method_Module_getName == null) {
@@ -199,112 +281,270 @@ public final class Checker implements RelatedClassLookup, Constants {
       return null; // not found
     }
     
-    return new ClassSignature(clazz, AsmUtils.isRuntimeModule(moduleName));
+    return new ClassSignature(clazz, AsmUtils.isRuntimeModule(moduleName), symbols);
   }
   
-  private boolean isRuntimePath(URL url) throws IOException {
-    if (!"file".equalsIgnoreCase(url.getProtocol())) {
-      return false;
+  private boolean isRuntimeClass(URLConnection conn, String resourceName) throws IOException {
+    final URL url = conn.getURL();
+    if ("file".equalsIgnoreCase(url.getProtocol())) {
+      final File file = toFile(url);
+      if (file == null) {
+        return false;
+      }
+      // the classpath directory is the path of the file without the resource name:
+      final String path = file.getPath(), relative = File.separator + resourceName.replace('/', File.separatorChar);
+      if (path.endsWith(relative)) {
+        return runtimeOrigins.isRuntimeFile(new File(path.substring(0, path.length() - relative.length() + 1)), resourceName);
+      }
+      final File dir = file.getParentFile();
+      return dir != null && runtimeOrigins.isRuntimeFile(dir, file.getName());
+    } else if ("jar".equalsIgnoreCase(url.getProtocol())) {
+      final File jarFile = getLocalJarFile(conn);
+      return jarFile != null && runtimeOrigins.isRuntimeJar(jarFile);
+    } else if ("jrt".equalsIgnoreCase(url.getProtocol())) {
+      // all 'jrt:' URLs refer to a module in the Java 9+ runtime (see http://openjdk.java.net/jeps/220)
+      return runtimeOrigins.isRuntimeModule(AsmUtils.getModuleName(url));
     }
+    return false;
+  }
+  
+  /** Converts a {@code file:} URL to a file; returns {@code null}, if this is not possible. */
+  private static File toFile(URL url) {
     try {
-      final String path = new File(url.toURI()).getCanonicalPath();
-      final String lookup = runtimePaths.floor(path);
-      return lookup != null && path.startsWith(lookup);
+      return new File(url.toURI());
     } catch (URISyntaxException e) {
       // should not happen, but if it's happening, it's definitely not a below our paths
-      return false;
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
     }
   }
   
-  private boolean isRuntimeClass(URLConnection conn) throws IOException {
-    final URL url = conn.getURL();
-    if (isRuntimePath(url)) {
-       return true;
-    } else if ("jar".equalsIgnoreCase(url.getProtocol()) && conn instanceof JarURLConnection) {
-      final URL jarUrl = ((JarURLConnection) conn).getJarFileURL();
-      return isRuntimePath(jarUrl);
-    } else if ("jrt".equalsIgnoreCase(url.getProtocol())) {
-      // all 'jrt:' URLs refer to a module in the Java 9+ runtime (see http://openjdk.java.net/jeps/220)
-      return AsmUtils.isRuntimeModule(AsmUtils.getModuleName(url));
+  /** Returns the local JAR file of a {@link JarURLConnection}; returns {@code null} for all other connections. */
+  private static File getLocalJarFile(URLConnection conn) {
+    if (!(conn instanceof JarURLConnection)) {
+      return null;
     }
-    return false;
+    final URL jarUrl = ((JarURLConnection) conn).getJarFileURL();
+    return "file".equalsIgnoreCase(jarUrl.getProtocol()) ? toFile(jarUrl) : null;
+  }
+  
+  /** Returns the index of all runtime packages, which is created on first call; returns {@code null}, if the runtime packages
+   * cannot be determined. */
+  synchronized RuntimePackageIndex getRuntimePackageIndex() {
+    if (!runtimePackageIndexCreated) {
+      runtimePackageIndexCreated = true;
+      if (method_Class_getModule != null) {
+        runtimePackageIndex = RuntimePackageIndex.fromBootLayer();
+      } else if (!runtimePaths.isEmpty()) {
+        try {
+          runtimePackageIndex = RuntimePackageIndex.fromRuntimePaths(runtimePaths);
+        } catch (IOException ioe) {
+          // fall back to loading the classes
+          debug("Cannot index the packages of the runtime: " + ioe);
+        }
+      }
+      if (runtimePackageIndex != null) {
+        debug(String.format(Locale.ENGLISH, "Indexed %d packages of the runtime.", runtimePackageIndex.size()));
+      }
+    }
+    return runtimePackageIndex;
+  }
+  
+  /** Returns the index of all classes visible to the {@link ClassLoader}, which is created on first call; returns {@code null},
+   * if the classpath is unknown, so classes must be looked up through the {@link ClassLoader}. */
+  synchronized ClasspathIndex getClasspathIndex() {
+    if (!classpathIndexCreated) {
+      classpathIndexCreated = true;
+      try {
+        classpathIndex = ClasspathIndex.create(loader);
+      } catch (IOException ioe) {
+        // fall back to the class loader
+        debug("Cannot index the classpath: " + ioe);
+      }
+      if (classpathIndex != null) {
+        debug("Indexed classpath: " + classpathIndex);
+      }
+    }
+    return classpathIndex;
   }
   
-  /** Reads a class (binary name) from the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked. */
+  /** Returns the reader of the Java 9+ runtime image, which is opened on first call; returns {@code null}, if not running
+   * on Java 9+ or if the classpath is unknown (as the class loader may then not delegate to the runtime first). */
+  synchronized RuntimeImageReader getRuntimeImage() {
+    if (!runtimeImageCreated) {
+      runtimeImageCreated = true;
+      if (getClasspathIndex() != null) {
+        runtimeImage = RuntimeImageReader.open(loader);
+      }
+    }
+    return runtimeImage;
+  }
+  
+  /** Reads a class (binary name) from the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked.
+   * This method is thread safe, each class is only loaded once (concurrent callers wait for the result). */
   @Override
   public ClassSignature getClassFromClassLoader(final String clazz) throws ClassNotFoundException,IOException {
-    if (classpathClassCache.containsKey(clazz)) {
-      final ClassSignature c = classpathClassCache.get(clazz);
-      if (c == null) {
-        throw new ClassNotFoundException(clazz);
+    return classpathClassCache.get(clazz, classLoaderLoader);
+  }
+  
+  /** Parses the class file of a class loaded from the {@link ClassLoader}. If an origin is given, only the class header is kept
+   * and the members are read again from it when needed; otherwise the members are parsed immediately. */
+  private ClassSignature parseClass(String clazz, byte[] bytecode, boolean isRuntimeClass, ClassSource origin) throws IOException {
+    final ClassReader cr;
+    try {
+      cr = AsmUtils.readAndPatchClass(bytecode);
+    } catch (IllegalArgumentException iae) {
+      // if class is too new for ASM, we only need the signatures of runtime classes, so try to parse it with
+      // patched version; if this also fails, we try to load it as Class<?> via Jigsaw:
+      if (isRuntimeClass) {
+        try {
+          final ClassReader patched = AsmUtils.readAndPatchRuntimeClass(bytecode);
+          patchedRuntimeClasses.incrementAndGet();
+          return new ClassSignature(patched, true, false, symbols);
+        } catch (IllegalArgumentException iae2) {
+          // fall through
+        }
+        final ClassSignature c = loadClassFromJigsaw(clazz);
+        if (c != null) {
+          reflectedRuntimeClasses.incrementAndGet();
+          return c;
+        }
       }
-      return c;
+      // unfortunately the ASM IAE has no message, so add good info!
+      throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+          "The class file format of '%s' is too recent to be parsed by ASM.", clazz));
+    }
+    return (origin == null) ? new ClassSignature(cr, isRuntimeClass, false, symbols) : new ClassSignature(cr, isRuntimeClass, origin, symbols);
+  }
+  
+  /** Returns the origin of a class file in a classpath entry or the runtime image, to read its members again. */
+  private static ClassSource classpathOrigin(final ClasspathIndex.Root root, final RuntimeImageReader image, final String module, final String resourceName) {
+    return new ClassSource() {
+      @Override
+      public byte[] read() throws IOException {
+        final byte[] bytecode = (root != null) ? root.read(resourceName) : image.read(module, resourceName);
+        if (bytecode == null) {
+          throw new FileNotFoundException("Class file no longer exists: " + this);
+        }
+        return bytecode;
+      }
+      
+      @Override
+      public String toString() {
+        return ((root != null) ? root.toString() : module) + "!/" + resourceName;
+      }
+    };
+  }
+  
+  /** Loads a class (binary name) from the given {@link ClassLoader} without caching; returns {@code null} if it does not exist. */
+  private ClassSignature loadClassFromClassLoader(final String clazz) throws IOException {
+    final String resourceName = AsmUtils.getClassResourceName(clazz);
+    final ClasspathIndex index = getClasspathIndex();
+    final ClasspathIndex.Root root = (index == null) ? null : index.getRoot(resourceName);
+    byte[] bytecode = null;
+    ClassSource origin = null;
+    boolean isRuntimeClass = false;
+    final RuntimeImageReader image = (root == null && index != null) ? getRuntimeImage() : null;
+    final String module = (image == null) ? null : image.getModule(resourceName);
+    if (root != null) {
+      isRuntimeClass = root.isJar ? runtimeOrigins.isRuntimeJar(root.file) : runtimeOrigins.isRuntimeFile(root.file, resourceName);
+    } else if (module != null) {
+      isRuntimeClass = runtimeOrigins.isRuntimeModule(module);
+    }
+    final SignatureCache cache = signatureCache;
+    // JAR files without reader are read through the class loader, so the classes may come from elsewhere:
+    final boolean isCachedJar = root != null && root.isJar && root.reader != null && !isRuntimeClass;
+    if (cache != null && (isRuntimeClass || isCachedJar)) {
+      final ClassSignature stored = isRuntimeClass ? cache.getRuntimeClass(clazz) : cache.getJarClass(root, clazz);
+      if (stored != null) {
+        return stored;
+      }
+    }
+    if (root != null) {
+      // read the class file directly from the classpath entry:
+      bytecode = root.read(resourceName);
+      origin = classpathOrigin(root, null, null, resourceName);
+    } else if (module != null && (bytecode = image.read(module, resourceName)) != null) {
+      // read the class file directly from the runtime image
+      origin = classpathOrigin(null, image, module, resourceName);
     } else {
-      final URL url = loader.getResource(AsmUtils.getClassResourceName(clazz));
+      final URL url = (index == null) ? loader.getResource(resourceName) : index.getResource(resourceName);
       if (url != null) {
         final URLConnection conn = url.openConnection();
-        final boolean isRuntimeClass = isRuntimeClass(conn);
-        if (!isRuntimeClass && options.contains(Option.DISABLE_CLASSLOADING_CACHE)) {
-          conn.setUseCaches(false);
+        isRuntimeClass = isRuntimeClass(conn, resourceName);
+        final ClassSignature stored = (cache != null && isRuntimeClass) ? cache.getRuntimeClass(clazz) : null;
+        if (stored != null) {
+          return stored;
         }
-        final InputStream in = conn.getInputStream();
-        final ClassReader cr;
-        try {
-          cr = AsmUtils.readAndPatchClass(in);
-        } catch (IllegalArgumentException iae) {
-          // if class is too new for this JVM, we try to load it as Class<?> via Jigsaw
-          // (only if it's a runtime class):
-          if (isRuntimeClass) {
-            final ClassSignature c = loadClassFromJigsaw(clazz);
-            if (c != null) {
-              classpathClassCache.put(clazz, c);
-              return c;
-            }
+        final File jarFile = getLocalJarFile(conn);
+        if (jarFile != null) {
+          // don't use the JVM-wide cache of JarURLConnection, which never closes the files:
+          bytecode = jarFilePool.read(jarFile, ((JarURLConnection) conn).getEntryName());
+        } else {
+          if (!isRuntimeClass && options.contains(Option.DISABLE_CLASSLOADING_CACHE)) {
+            conn.setUseCaches(false);
+          }
+          final InputStream in = conn.getInputStream();
+          try {
+            bytecode = AsmUtils.readStream(in);
+          } finally {
+            in.close();
           }
-          // unfortunately the ASM IAE has no message, so add good info!
-          throw new IllegalArgumentException(String.format(Locale.ENGLISH,
-              "The class file format of '%s' is too recent to be parsed by ASM.", clazz));
-        } finally {
-          in.close();
         }
-        final ClassSignature c = new ClassSignature(cr, isRuntimeClass, false);
-        classpathClassCache.put(clazz, c);
-        return c;
-      } else {
-        final ClassSignature c = loadClassFromJigsaw(clazz);
-        if (c != null) {
-          classpathClassCache.put(clazz, c);
-          return c;
+      }
+    }
+    if (bytecode != null) {
+      final ClassSignature c = parseClass(clazz, bytecode, isRuntimeClass, origin);
+      if (cache != null) {
+        if (isRuntimeClass) {
+          cache.addRuntimeClass(c);
+        } else if (isCachedJar) {
+          cache.addJarClass(root, c);
         }
       }
-      // try to get class from our list of classes we are checking:
-      final ClassSignature c = classesToCheck.get(clazz);
+      return c;
+    } else {
+      final ClassSignature c = loadClassFromJigsaw(clazz);
       if (c != null) {
-        classpathClassCache.put(clazz, c);
         return c;
       }
-      // all failed => the class does not exist!
-      classpathClassCache.put(clazz, null);
-      throw new ClassNotFoundException(clazz);
     }
+    // read the flag before looking up, so it's guaranteed that all classes are registered if it's false:
+    final boolean registrationPending = this.registrationPending;
+    // try to get class from our list of classes we are checking (may be null if it does not exist):
+    final ClassSignature c;
+    synchronized (classesToCheck) {
+      c = classesToCheck.get(clazz);
+    }
+    if (c == null && registrationPending) {
+      // don't cache the missing class, it may be registered later:
+      throw new ScanPipeline.DeferredLookupException(clazz);
+    }
+    return c;
   }
   
   @Override
   public ClassSignature lookupRelatedClass(String internalName) {
-    final Type type = Type.getObjectType(internalName);
-    if (type.getSort() != Type.OBJECT) {
-      return null;
+    return lookupRelatedClass(internalName, logger);
+  }
+  
+  /** Same as {@link #lookupRelatedClass(String)}, but reports missing classes to the given logger. */
+  private ClassSignature lookupRelatedClass(String internalName, Logger logger) {
+    if (internalName.startsWith("[")) {
+      return null; // arrays are no classes
     }
+    // use binary name, so we need to convert:
+    final String binaryName = symbols.getBinaryName(internalName);
     try {
-      // use binary name, so we need to convert:
-      return getClassFromClassLoader(type.getClassName());
+      return getClassFromClassLoader(binaryName);
     } catch (ClassNotFoundException cnfe) {
       if (options.contains(Option.FAIL_ON_MISSING_CLASSES)) {
         throw new WrapperRuntimeException(cnfe);
       } else {
         logger.warn(String.format(Locale.ENGLISH,
           "The referenced class '%s' cannot be loaded. Please fix the classpath!",
-          type.getClassName()
+          binaryName
         ));
         return null;
       }
@@ -313,6 +553,77 @@ public final class Checker implements RelatedClassLookup, Constants {
     }
   }
   
+  /** Enables the persistent cache of class signatures in the given directory, which is created if needed. The signatures
+   * of all runtime classes and classes from JAR files of the classpath, which were loaded by this checker, are stored there
+   * on {@link #close()}, so later runs don't need to parse them again. Runtime classes are only used by runs on the same
+   * Java runtime (vendor, version, and {@code java.home}), classes of JAR files only if the JAR file is unchanged.
+   * The files are shared by concurrent processes. Should be called before adding signatures or classes.
+   * If the directory can't be used, a warning is logged. */
+  public void setCacheDirectory(File dir) {
+    final SignatureCache cache;
+    try {
+      cache = SignatureCache.open(dir, symbols);
+    } catch (IOException ioe) {
+      logger.warn("Cannot use signature cache directory, caching is disabled: " + ioe);
+      return;
+    }
+    final SignatureCache previous;
+    synchronized (this) {
+      previous = signatureCache;
+      signatureCache = cache;
+    }
+    if (previous != null) try {
+      previous.store();
+    } catch (IOException ioe) {
+      logger.warn("Cannot store class signatures in cache: " + ioe);
+    }
+  }
+  
+  /** Stores the signatures of all newly loaded classes in the persistent cache (if enabled) and closes it. */
+  private void storeSignatures() {
+    final SignatureCache cache;
+    synchronized (this) {
+      cache = signatureCache;
+      signatureCache = null;
+    }
+    if (cache != null) try {
+      debug("Signature cache: " + cache);
+      final int written = cache.store();
+      if (written > 0) {
+        debug(String.format(Locale.ENGLISH, "Signature cache: %d file(s) updated", written));
+      }
+    } catch (IOException ioe) {
+      logger.warn("Cannot store class signatures in cache: " + ioe);
+    }
+  }
+  
+  /** Enables incremental checking: the results of all checked classes are stored in the given file, so the next run
+   * only checks the classes which changed, or whose related classes to check changed. The messages of all other classes
+   * are taken from the file, so the output is the same as checking all classes. All classes are checked, if the
+   * signatures, suppressing annotations, the Java runtime, or the classpath changed. Incremental checking needs a known
+   * classpath (see {@link ClasspathIndex}) and is not available in pipelined mode with more than one thread (see {@link Option#PIPELINED_SCAN}),
+   * otherwise all classes are checked and a warning is logged. It should be enabled before adding the classes to check,
+   * so in streaming mode (see {@link Option#STREAMING_SCAN}) the class files are hashed when they are read first. */
+  public void setIncrementalFile(File file) {
+    this.incrementalFile = file;
+  }
+  
+  /** Sets the number of threads used to scan the classes for violations.
+   * The default is the number of available processors. A value of {@code 1} scans
+   * all classes sequentially in the calling thread, {@code 0} restores the default.
+   * The order of reported violations is the same, regardless of this setting. */
+  public void setThreads(int threads) {
+    if (threads < 0) {
+      throw new IllegalArgumentException("Number of threads must not be negative: " + threads);
+    }
+    this.threads = (threads == 0) ? Runtime.getRuntime().availableProcessors() : threads;
+  }
+  
+  /** Returns the number of threads used to scan classes. */
+  public int getThreads() {
+    return threads;
+  }
+  
   /** Reads a list of bundled API signatures from classpath. */
   public void addBundledSignatures(String name, String jdkTargetVersion) throws IOException,ParseException {
     forbiddenSignatures.addBundledSignatures(name, jdkTargetVersion);
@@ -343,32 +654,128 @@ public final class Checker implements RelatedClassLookup, Constants {
     return forbiddenSignatures.hasNoSignatures();
   }
   
-  /** Parses and adds a class from the given stream to the list of classes to check. Closes the stream when parsed (on Exception, too)! Does not log anything. */
-  public void addClassToCheck(final InputStream in, String name) throws IOException {
-    final ClassReader reader;
+  /** Parses the bytecode of a class to check. */
+  ClassReader parseClass(byte[] bytecode, String name) {
     try {
-      reader = AsmUtils.readAndPatchClass(in);
+      return AsmUtils.readAndPatchClass(bytecode);
     } catch (IllegalArgumentException iae) {
       // unfortunately the ASM IAE has no message, so add good info!
       throw new IllegalArgumentException(String.format(Locale.ENGLISH,
           "The class file format of '%s' is too recent to be parsed by ASM.", name));
+    }
+  }
+  
+  /** Parses a class from the given stream. Closes the stream when parsed (on Exception, too)! */
+  private ClassSignature parseClassToCheck(final InputStream in, String name) throws IOException {
+    final byte[] bytecode;
+    try {
+      bytecode = AsmUtils.readStream(in);
     } finally {
       in.close();
     }
-    final String binaryName = Type.getObjectType(reader.getClassName()).getClassName();
-    classesToCheck.put(binaryName, new ClassSignature(reader, false, true));
+    return new ClassSignature(parseClass(bytecode, name), false, true, symbols);
+  }
+  
+  /** Parses a class file to check. In streaming mode (see {@link Option#STREAMING_SCAN}), only the header of
+   * the class is kept in memory and the file is read again when the class is scanned. */
+  private ClassSignature parseClassToCheck(File f) throws IOException {
+    return parseClassToCheck(ClassSource.of(f));
+  }
+  
+  /** Parses a class to check from the given source, see {@link #parseClassToCheck(File)}. */
+  private ClassSignature parseClassToCheck(ClassSource source) throws IOException {
+    return parseClassToCheck(source.read(), source);
+  }
+  
+  /** Parses a class to check, whose bytecode was already read from the given source. */
+  private ClassSignature parseClassToCheck(byte[] bytecode, ClassSource source) throws IOException {
+    final ClassReader reader = parseClass(bytecode, source.toString());
+    if (options.contains(Option.STREAMING_SCAN)) {
+      return new ClassSignature(reader, source, (incrementalFile == null) ? null : ResultStore.hash(bytecode), symbols);
+    }
+    return new ClassSignature(reader, false, true, symbols);
+  }
+  
+  /** Adds a parsed class to the list of classes to check. Returns {@code false}, if the class was already registered:
+   * like on a classpath, the first class file of a class is checked and later ones are ignored, so the pipeline can
+   * scan it before all classes are known. This method is thread safe. */
+  boolean registerClassToCheck(ClassSignature c) {
+    final String binaryName = symbols.getBinaryName(c.className);
+    synchronized (classesToCheck) {
+      if (classesToCheck.containsKey(binaryName)) {
+        return false;
+      }
+      classesToCheck.put(binaryName, c);
+      return true;
+    }
+  }
+  
+  /** Called by the pipeline, after all classes to check are registered. */
+  void endRegistration() {
+    registrationPending = false;
+  }
+  
+  /** Parses and adds a class from the given stream to the list of classes to check. Closes the stream when parsed (on Exception, too)! Does not log anything. */
+  public void addClassToCheck(final InputStream in, String name) throws IOException {
+    if (options.contains(Option.PIPELINED_SCAN)) {
+      try {
+        pendingClassesToCheck.add(ClassSource.of(AsmUtils.readStream(in), name));
+      } finally {
+        in.close();
+      }
+    } else {
+      registerClassToCheck(parseClassToCheck(in, name));
+    }
   }
   
   /** Parses and adds a class from the given file to the list of classes to check. Does not log anything. */
   public void addClassToCheck(File f) throws IOException {
-    addClassToCheck(new FileInputStream(f), f.toString());
+    if (options.contains(Option.PIPELINED_SCAN)) {
+      pendingClassesToCheck.add(ClassSource.of(f));
+    } else {
+      registerClassToCheck(parseClassToCheck(f));
+    }
   }
 
-  /** Parses and adds a multiple class files. */
+  /** Parses and adds a multiple class files. If more than one thread is configured
+   * (see {@link #setThreads(int)}), the files are read and parsed in parallel, but the
+   * resulting list of classes to check has the same order like the given files.
+   * In pipelined mode (see {@link Option#PIPELINED_SCAN}), the files are only read by {@link #run()}. */
   public void addClassesToCheck(Iterable<File> files) throws IOException {
+    if (options.contains(Option.PIPELINED_SCAN)) {
+      for (final File f : files) {
+        addClassToCheck(f);
+      }
+      return;
+    }
     logger.info("Loading classes to check...");
-    for (final File f : files) {
-      addClassToCheck(f);
+    if (threads <= 1) {
+      for (final File f : files) {
+        addClassToCheck(f);
+      }
+      return;
+    }
+    final OrderedExecutor<ClassSignature> executor = new OrderedExecutor<ClassSignature>("loader", threads);
+    try {
+      for (final File f : files) {
+        executor.submit(new Callable<ClassSignature>() {
+          @Override
+          public ClassSignature call() throws IOException {
+            return parseClassToCheck(f);
+          }
+        });
+        while (executor.isFull()) {
+          registerClassToCheck(executor.take());
+        }
+      }
+      while (!executor.isEmpty()) {
+        registerClassToCheck(executor.take());
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Loading classes to check was interrupted.");
+    } finally {
+      executor.close();
     }
   }
 
@@ -378,11 +785,29 @@ public final class Checker implements RelatedClassLookup, Constants {
   }
 
   /** Parses and adds a multiple class files. */
-  public void addClassesToCheck(File basedir, Iterable<String> relativeNames) throws IOException {
-    logger.info("Loading classes to check...");
-    for (final String f : relativeNames) {
-      addClassToCheck(new File(basedir, f));
-    }
+  public void addClassesToCheck(final File basedir, final Iterable<String> relativeNames) throws IOException {
+    addClassesToCheck(new Iterable<File>() {
+      @Override
+      public Iterator<File> iterator() {
+        final Iterator<String> it = relativeNames.iterator();
+        return new Iterator<File>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+          
+          @Override
+          public File next() {
+            return new File(basedir, it.next());
+          }
+          
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    });
   }
 
   /** Parses and adds a multiple class files. */
@@ -390,6 +815,128 @@ public final class Checker implements RelatedClassLookup, Constants {
     addClassesToCheck(basedir, Arrays.asList(relativeNames));
   }
 
+  /** Parses and adds all classes of the given archive (JAR, WAR, or EAR file), including the classes of nested archives
+   * like {@code WEB-INF/lib/*.jar} or {@code BOOT-INF/lib/*.jar}. The archive is read as a stream, nothing is extracted
+   * to disk. If more than one thread is configured (see {@link #setThreads(int)}), the class files are parsed in parallel,
+   * but only a limited number of them is held in memory at once. The classes are added in the order of the archive's
+   * entries, entries below {@code META-INF/} are ignored. Returns the number of class files found.
+   * <p>
+   * The archive stays mapped into memory until {@link #close()}, so in pipelined and streaming mode
+   * (see {@link Option#PIPELINED_SCAN}, {@link Option#STREAMING_SCAN}) its classes are read again when needed.
+   * This is not possible for compressed nested archives and archives not supported by {@link JarReader}
+   * (e.g., ZIP64 files), the bytecode of their classes is kept in memory. */
+  public int addArchiveToCheck(File archive) throws IOException {
+    JarReader reader = null;
+    try {
+      reader = JarReader.open(archive, archiveInflaters);
+      archiveReaders.add(reader);
+    } catch (ZipException ze) {
+      // not supported, the bytecode is kept in memory
+    }
+    final InputStream in = new FileInputStream(archive);
+    try {
+      return addArchiveToCheck(in, archive.toString(), reader);
+    } finally {
+      in.close();
+    }
+  }
+  
+  /** Same as {@link #addArchiveToCheck(File)}, but reads the archive from the given stream, which is not closed.
+   * The name is used in messages. The classes can't be read again, so their bytecode is always kept in memory. */
+  public int addArchiveToCheck(InputStream in, String name) throws IOException {
+    return addArchiveToCheck(in, name, null);
+  }
+  
+  private int addArchiveToCheck(InputStream in, String name, JarReader reader) throws IOException {
+    if (!options.contains(Option.PIPELINED_SCAN)) {
+      logger.info("Loading classes to check...");
+    }
+    final OrderedExecutor<ClassSignature> executor = (threads > 1 && !options.contains(Option.PIPELINED_SCAN)) ?
+        new OrderedExecutor<ClassSignature>("loader", threads) : null;
+    try {
+      final int count = addArchiveEntries(new BufferedInputStream(in), name, reader, executor);
+      if (executor != null) {
+        while (!executor.isEmpty()) {
+          registerClassToCheck(executor.take());
+        }
+      }
+      return count;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Loading classes to check was interrupted.");
+    } finally {
+      if (executor != null) {
+        executor.close();
+      }
+    }
+  }
+  
+  /** Reads the entries of an archive from the given stream and adds its classes; nested archives are read recursively
+   * from the same stream. The classes are read again from the given reader of the archive, if not {@code null}.
+   * The stream is not closed. Returns the number of class files found. */
+  private int addArchiveEntries(InputStream in, String name, JarReader reader, OrderedExecutor<ClassSignature> executor)
+      throws IOException,InterruptedException {
+    final ZipInputStream zin = new ZipInputStream(new FilterInputStream(in) {
+      @Override
+      public void close() {
+        // the stream of the enclosing archive stays open
+      }
+    });
+    try {
+      int count = 0;
+      ZipEntry entry;
+      while ((entry = zin.getNextEntry()) != null) {
+        final String entryName = entry.getName();
+        if (entry.isDirectory() || entryName.startsWith("META-INF/")) {
+          continue;
+        }
+        final String lowerName = entryName.toLowerCase(Locale.ENGLISH);
+        if (lowerName.endsWith(".class")) {
+          if (reader == null) {
+            final byte[] bytecode = AsmUtils.readStream(zin, entry.getSize());
+            addArchiveClass(ClassSource.of(bytecode, name + "!/" + entryName), bytecode, executor);
+          } else if (options.contains(Option.PIPELINED_SCAN)) {
+            // the class is read by the pipeline:
+            addArchiveClass(ClassSource.of(reader, entryName), null, executor);
+          } else {
+            addArchiveClass(ClassSource.of(reader, entryName), AsmUtils.readStream(zin, entry.getSize()), executor);
+          }
+          count++;
+        } else if (lowerName.endsWith(".jar") || lowerName.endsWith(".war") || lowerName.endsWith(".ear")) {
+          final JarReader nested = (reader == null) ? null : reader.openNested(entryName);
+          if (nested != null) {
+            archiveReaders.add(nested);
+          }
+          count += addArchiveEntries(zin, name + "!/" + entryName, nested, executor);
+        }
+      }
+      return count;
+    } finally {
+      zin.close();
+    }
+  }
+  
+  /** Parses and adds a class file read from an archive, using the given executor (if not {@code null}). In pipelined mode,
+   * the class is only added to the pending classes, so the bytecode is not needed. */
+  private void addArchiveClass(final ClassSource source, final byte[] bytecode, OrderedExecutor<ClassSignature> executor)
+      throws IOException,InterruptedException {
+    if (options.contains(Option.PIPELINED_SCAN)) {
+      pendingClassesToCheck.add(source);
+    } else if (executor == null) {
+      registerClassToCheck(parseClassToCheck(bytecode, source));
+    } else {
+      executor.submit(new Callable<ClassSignature>() {
+        @Override
+        public ClassSignature call() throws IOException {
+          return parseClassToCheck(bytecode, source);
+        }
+      });
+      while (executor.isFull()) {
+        registerClassToCheck(executor.take());
+      }
+    }
+  }
+  
   /** Adds the given annotation class for suppressing errors. */
   public void addSuppressAnnotation(Class<? extends Annotation> anno) {
     suppressAnnotations.add(anno.getName());
@@ -400,10 +947,39 @@ public final class Checker implements RelatedClassLookup, Constants {
     suppressAnnotations.add(annoName);
   }
   
-  /** Parses a class and checks for valid method invocations */
-  private int checkClass(final ClassReader reader, Pattern suppressAnnotationsPattern) {
-    final String className = Type.getObjectType(reader.getClassName()).getClassName();
-    final ClassScanner scanner = new ClassScanner(this, forbiddenSignatures, suppressAnnotationsPattern); 
+  /** Parses a class and checks for valid method invocations. All messages are sent to the given logger. */
+  int checkClass(final ClassReader reader, Pattern suppressAnnotationsPattern, final Logger logger) {
+    return checkClass(reader, suppressAnnotationsPattern, logger, null);
+  }
+  
+  /** Same as {@link #checkClass(ClassReader, Pattern, Logger)}, but sets the given flag (if not {@code null}),
+   * when a related class cannot be found. */
+  private int checkClass(final ClassReader reader, Pattern suppressAnnotationsPattern, final Logger logger, final AtomicBoolean missingClasses) {
+    final String className = symbols.getBinaryName(reader.getClassName());
+    final RelatedClassLookup lookup = (logger == this.logger && missingClasses == null) ? this : new RelatedClassLookup() {
+      @Override
+      public ClassSignature lookupRelatedClass(String internalName) {
+        final ClassSignature c = Checker.this.lookupRelatedClass(internalName, logger);
+        if (c == null && missingClasses != null && !internalName.startsWith("[")) {
+          missingClasses.set(true);
+        }
+        return c;
+      }
+      
+      @Override
+      public ClassSignature getClassFromClassLoader(String clazz) throws ClassNotFoundException, IOException {
+        try {
+          return Checker.this.getClassFromClassLoader(clazz);
+        } catch (ClassNotFoundException cnfe) {
+          if (missingClasses != null) {
+            missingClasses.set(true);
+          }
+          throw cnfe;
+        }
+      }
+    };
+    final RuntimePackageIndex runtimePackages = forbiddenSignatures.isNonPortableRuntimeForbidden() ? getRuntimePackageIndex() : null;
+    final ClassScanner scanner = new ClassScanner(lookup, forbiddenSignatures, suppressAnnotationsPattern, verdictCache, runtimePackages);
     reader.accept(scanner, ClassReader.SKIP_FRAMES);
     final List<ForbiddenViolation> violations = scanner.getSortedViolations();
     final Pattern splitter = Pattern.compile(Pattern.quote(ForbiddenViolation.SEPARATOR));
@@ -415,14 +991,203 @@ public final class Checker implements RelatedClassLookup, Constants {
     return violations.size();
   }
   
+  /** Checks a class and adds its result to the given store. Its messages are returned, to be replayed. */
+  private BufferedLogger checkClass(ClassReader reader, Pattern suppressAnnotationsPattern, ResultStore results) {
+    final BufferedLogger log = new BufferedLogger();
+    final AtomicBoolean missingClasses = new AtomicBoolean(false);
+    log.violations = checkClass(reader, suppressAnnotationsPattern, log, missingClasses);
+    results.addResult(symbols.getBinaryName(reader.getClassName()), getDependencies(reader), missingClasses.get(), log);
+    return log;
+  }
+  
+  /** Returns the binary names of the other classes to check, which the result of the given class may depend on: all classes
+   * to check named in its constant pool (directly or in descriptors and signatures), with all their superclasses and
+   * interfaces, which are classes to check, too. */
+  private Set<String> getDependencies(ClassReader reader) {
+    final Set<String> dependencies = new TreeSet<String>();
+    final Deque<String> pending = new ArrayDeque<String>();
+    synchronized (classesToCheck) {
+      for (int i = 1, c = reader.getItemCount(); i < c; i++) {
+        final int offset = reader.getItem(i);
+        // the items following long and double constants have no offset:
+        if (offset == 0 || reader.readByte(offset - 1) != 1 /* CONSTANT_Utf8 */) {
+          continue;
+        }
+        final String s = new String(reader.b, offset + 2, reader.readUnsignedShort(offset), UTF8);
+        addDependency(s, dependencies, pending);
+        for (int start = s.indexOf('L'); start >= 0; start = s.indexOf('L', start + 1)) {
+          final int end = s.indexOf(';', start);
+          if (end < 0) {
+            break;
+          }
+          addDependency(s.substring(start + 1, end), dependencies, pending);
+        }
+      }
+      while (!pending.isEmpty()) {
+        final ClassSignature c = classesToCheck.get(pending.poll());
+        if (c.superName != null) {
+          addDependency(c.superName, dependencies, pending);
+        }
+        for (final String interf : c.interfaces) {
+          addDependency(interf, dependencies, pending);
+        }
+      }
+    }
+    dependencies.remove(symbols.getBinaryName(reader.getClassName()));
+    return dependencies;
+  }
+  
+  /** Adds the given internal name to the dependencies, if it is a class to check. */
+  private void addDependency(String internalName, Set<String> dependencies, Deque<String> pending) {
+    final String binaryName = internalName.replace('/', '.');
+    if (classesToCheck.containsKey(binaryName) && dependencies.add(binaryName)) {
+      pending.add(binaryName);
+    }
+  }
+  
+  /** Opens the results of the previous run, if incremental checking is enabled (see {@link #setIncrementalFile(File)}),
+   * and computes the hashes of all classes to check. Returns {@code null}, if all classes must be checked without storing
+   * their results. */
+  private ResultStore openResults() throws IOException {
+    if (incrementalFile == null) {
+      return null;
+    }
+    final ClasspathIndex index = getClasspathIndex();
+    if (index == null || !pendingClassesToCheck.isEmpty()) {
+      logger.warn("Incremental checking is not possible with " + ((index == null) ? "an unknown classpath" : "pipelined scanning") +
+          ", all classes are checked.");
+      return null;
+    }
+    final Map<String,byte[]> hashes = new LinkedHashMap<String,byte[]>();
+    final Set<String> resourceNames = new HashSet<String>();
+    for (final Map.Entry<String,ClassSignature> e : classesToCheck.entrySet()) {
+      hashes.put(e.getKey(), e.getValue().getBytecodeHash());
+      resourceNames.add(AsmUtils.getClassResourceName(e.getKey()));
+    }
+    // everything else the results depend on:
+    final MessageDigest md = ResultStore.newDigest();
+    ResultStore.update(md, SignatureCache.getRuntimeKey(), Boolean.toString(isSupportedJDK),
+        Boolean.toString(options.contains(Option.FAIL_ON_MISSING_CLASSES)), suppressAnnotations.toString());
+    forbiddenSignatures.updateDigest(md);
+    // classes to check in a directory of the classpath are covered by their hashes:
+    index.updateDigest(md, resourceNames);
+    final StringBuilder key = new StringBuilder();
+    for (final byte b : md.digest()) {
+      key.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+    }
+    final ResultStore results = ResultStore.open(incrementalFile, key.toString());
+    results.setClasses(hashes);
+    return results;
+  }
+  
+  /** Scans all classes using a thread pool. The log output of each class is buffered and
+   * written in the same order as a sequential scan would do. The number of classes in flight
+   * is limited, so the buffered output does not grow without bounds. */
+  private int checkClassesParallel(final Pattern suppressAnnotationsPattern, final ResultStore results) throws ForbiddenApiException {
+    final OrderedExecutor<BufferedLogger> executor = new OrderedExecutor<BufferedLogger>("scanner", threads);
+    try {
+      int errors = 0;
+      for (final Map.Entry<String,ClassSignature> e : classesToCheck.entrySet()) {
+        final BufferedLogger stored = (results == null) ? null : results.getStoredResult(e.getKey());
+        final ClassReader reader = (stored == null) ? e.getValue().getReader() : null;
+        executor.submit(new Callable<BufferedLogger>() {
+          @Override
+          public BufferedLogger call() {
+            if (stored != null) {
+              return stored;
+            }
+            if (results != null) {
+              return checkClass(reader, suppressAnnotationsPattern, results);
+            }
+            final BufferedLogger log = new BufferedLogger();
+            log.violations = checkClass(reader, suppressAnnotationsPattern, log);
+            return log;
+          }
+        });
+        while (executor.isFull()) {
+          errors += replayResult(executor.take());
+        }
+      }
+      while (!executor.isEmpty()) {
+        errors += replayResult(executor.take());
+      }
+      return errors;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new ForbiddenApiException("Check for forbidden API calls was interrupted.");
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    } finally {
+      executor.close();
+    }
+  }
+  
+  /** Reads and parses the pending classes of pipelined mode in the calling thread, so they are scanned like without
+   * pipelining. With a single thread, the stages of the pipeline can't run concurrently. */
+  private void registerPendingClasses() throws IOException {
+    try {
+      for (final ClassSource source : pendingClassesToCheck) {
+        registerClassToCheck(parseClassToCheck(source));
+      }
+    } finally {
+      pendingClassesToCheck.clear();
+    }
+  }
+  
+  /** Reads, parses and scans the pending classes in a pipeline, see {@link ScanPipeline}. */
+  private int checkClassesPipelined(final Pattern suppressAnnotationsPattern) throws ForbiddenApiException {
+    registrationPending = true;
+    try {
+      return new ScanPipeline(this, pendingClassesToCheck, suppressAnnotationsPattern, threads).run();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new ForbiddenApiException("Check for forbidden API calls was interrupted.");
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    } finally {
+      registrationPending = false;
+      pipelineCompleted = true;
+      pendingClassesToCheck.clear();
+    }
+  }
+  
+  private int replayResult(BufferedLogger log) {
+    log.replay(logger);
+    return log.violations;
+  }
+  
+  /** Checks all classes for violations. This may be repeated, e.g. with additional signatures, except after scanning in
+   * pipelined mode with more than one thread (see {@link Option#PIPELINED_SCAN}): it releases the class files while
+   * scanning, so a later call throws {@link IllegalStateException}. */
   public void run() throws ForbiddenApiException {
+    if (pipelineCompleted) {
+      throw new IllegalStateException("The classes were already checked in pipelined mode, so they can't be checked again.");
+    }
     logger.info("Scanning classes for violations...");
     int errors = 0;
     final Pattern suppressAnnotationsPattern = AsmUtils.glob2Pattern(suppressAnnotations.toArray(new String[suppressAnnotations.size()]));
+    ResultStore results = null;
     try {
-      for (final ClassSignature c : classesToCheck.values()) {
-        errors += checkClass(c.getReader(), suppressAnnotationsPattern);
+      if (threads <= 1) {
+        registerPendingClasses();
       }
+      results = openResults();
+      if (!pendingClassesToCheck.isEmpty()) {
+        errors = checkClassesPipelined(suppressAnnotationsPattern);
+      } else if (threads > 1 && classesToCheck.size() > 1) {
+        errors = checkClassesParallel(suppressAnnotationsPattern, results);
+      } else if (results != null) {
+        for (final Map.Entry<String,ClassSignature> e : classesToCheck.entrySet()) {
+          final BufferedLogger stored = results.getStoredResult(e.getKey());
+          errors += replayResult((stored != null) ? stored : checkClass(e.getValue().getReader(), suppressAnnotationsPattern, results));
+        }
+      } else {
+        for (final ClassSignature c : classesToCheck.values()) {
+          errors += checkClass(c.getReader(), suppressAnnotationsPattern, logger);
+        }
+      }
+    } catch (IOException ioe) {
+      throw new ForbiddenApiException("Check for forbidden API calls failed: " + ioe.toString(), ioe);
     } catch (WrapperRuntimeException wre) {
       final Throwable cause = wre.getCause();
       if (cause != null) {
@@ -432,6 +1197,15 @@ public final class Checker implements RelatedClassLookup, Constants {
       }
     }
     
+    if (results != null) {
+      debug("Incremental results: " + results);
+      try {
+        results.store();
+      } catch (IOException ioe) {
+        logger.warn("Cannot store the results for incremental checking: " + ioe);
+      }
+    }
+    
     final String message = String.format(Locale.ENGLISH, 
         "Scanned %d class file(s) for forbidden API invocations (in %.2fs), %d error(s).",
         classesToCheck.size(), (System.currentTimeMillis() - start) / 1000.0, errors);
@@ -441,6 +1215,116 @@ public final class Checker implements RelatedClassLookup, Constants {
     } else {
       logger.info(message);
     }
+    debug("Classpath class cache: " + classpathClassCache);
+    debug("Verdict cache: " + verdictCache);
+    debug("Symbol table: " + symbols);
+    debug("Runtime origin: " + runtimeOrigins);
+    final RuntimeImageReader image;
+    synchronized (this) {
+      image = runtimeImage;
+    }
+    if (image != null) {
+      debug("Runtime image: " + image);
+    }
+    debug(String.format(Locale.ENGLISH, "Runtime classes too recent for ASM: %d parsed with patched class file version, %d loaded by reflection",
+        patchedRuntimeClasses.get(), reflectedRuntimeClasses.get()));
+    debug(String.format(Locale.ENGLISH, "JAR files opened outside of the classpath index: %d", jarFilePool.size()));
+  }
+  
+  /** Stores the class signatures in the persistent cache (see {@link #setCacheDirectory(File)}) and closes
+   * all JAR files opened by this checker. Must not be called while classes are checked. Afterwards,
+   * classes from JAR files can no longer be loaded. */
+  @Override
+  public void close() throws IOException {
+    storeSignatures();
+    final ClasspathIndex index;
+    synchronized (this) {
+      index = classpathIndexCreated ? classpathIndex : null;
+      classpathIndexCreated = true;
+      classpathIndex = null;
+    }
+    try {
+      if (index != null) {
+        index.close();
+      }
+    } finally {
+      synchronized (archiveReaders) {
+        for (final JarReader reader : archiveReaders) {
+          reader.close();
+        }
+        archiveReaders.clear();
+      }
+      archiveInflaters.close();
+      jarFilePool.close();
+    }
+  }
+  
+  /** Logger that records all messages of a class scanned in another thread, to be replayed later in correct order. */
+  static final class BufferedLogger implements DebugLogger {
+    private final List<String> messages = new ArrayList<String>();
+    private final List<Integer> levels = new ArrayList<Integer>();
+    int violations = 0;
+    
+    static final int ERROR = 0, WARN = 1, INFO = 2, DEBUG = 3;
+    
+    void add(int level, String msg) {
+      levels.add(level);
+      messages.add(msg);
+    }
+    
+    /** Returns the number of recorded messages. */
+    int size() {
+      return messages.size();
+    }
+    
+    int getLevel(int i) {
+      return levels.get(i).intValue();
+    }
+    
+    String getMessage(int i) {
+      return messages.get(i);
+    }
+    
+    @Override
+    public void error(String msg) {
+      add(ERROR, msg);
+    }
+    
+    @Override
+    public void warn(String msg) {
+      add(WARN, msg);
+    }
+    
+    @Override
+    public void info(String msg) {
+      add(INFO, msg);
+    }
+    
+    @Override
+    public void debug(String msg) {
+      add(DEBUG, msg);
+    }
+    
+    void replay(Logger logger) {
+      for (int i = 0, c = messages.size(); i < c; i++) {
+        final String msg = messages.get(i);
+        switch (levels.get(i).intValue()) {
+          case ERROR:
+            logger.error(msg);
+            break;
+          case WARN:
+            logger.warn(msg);
+            break;
+          case INFO:
+            logger.info(msg);
+            break;
+          default:
+            if (logger instanceof DebugLogger) {
+              ((DebugLogger) logger).debug(msg);
+            }
+        }
+      }
+    }
   }
   
 }
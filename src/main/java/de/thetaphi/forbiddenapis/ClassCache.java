@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Concurrent cache of {@link ClassSignature}s, key is the binary name (dotted).
+ * The first thread requesting a class loads it, all other threads requesting the
+ * same class wait for this result. Classes that do not exist are cached, too. */
+final class ClassCache {
+
+  /** Loads a class for the cache. */
+  interface Loader {
+    /** Returns the loaded class or {@code null}, if it does not exist. */
+    ClassSignature load(String clazz) throws IOException;
+  }
+
+  private final ConcurrentMap<String,FutureTask<ClassSignature>> cache = new ConcurrentHashMap<String,FutureTask<ClassSignature>>();
+  private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), waits = new AtomicLong();
+
+  /** Returns the class from cache or loads it using the given loader (only once, also if called concurrently). */
+  public ClassSignature get(final String clazz, final Loader loader) throws ClassNotFoundException,IOException {
+    FutureTask<ClassSignature> task = cache.get(clazz);
+    if (task == null) {
+      final FutureTask<ClassSignature> newTask = new FutureTask<ClassSignature>(new Callable<ClassSignature>() {
+        @Override
+        public ClassSignature call() throws IOException {
+          return loader.load(clazz);
+        }
+      });
+      task = cache.putIfAbsent(clazz, newTask);
+      if (task == null) {
+        misses.incrementAndGet();
+        task = newTask;
+        task.run();
+      } else {
+        countHit(task);
+      }
+    } else {
+      countHit(task);
+    }
+    final ClassSignature c;
+    try {
+      c = getUninterruptibly(task);
+    } catch (ExecutionException ee) {
+      // don't cache failures, a later call may retry:
+      cache.remove(clazz, task);
+      final Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new WrapperRuntimeException((Exception) cause);
+    }
+    if (c == null) {
+      throw new ClassNotFoundException(clazz);
+    }
+    return c;
+  }
+
+  private void countHit(FutureTask<ClassSignature> task) {
+    if (task.isDone()) {
+      hits.incrementAndGet();
+    } else {
+      waits.incrementAndGet();
+    }
+  }
+
+  private static <T> T getUninterruptibly(FutureTask<T> task) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Number of lookups answered from the cache without loading. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Number of lookups that loaded the class. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Number of lookups that had to wait for another thread loading the same class. */
+  public long getWaits() {
+    return waits.get();
+  }
+
+  /** Returns all classes, which were successfully loaded until now (excluding those that do not exist). */
+  public List<ClassSignature> getLoaded() {
+    final List<ClassSignature> loaded = new ArrayList<ClassSignature>();
+    for (final FutureTask<ClassSignature> task : cache.values()) {
+      if (task.isDone()) {
+        try {
+          final ClassSignature c = task.get();
+          if (c != null) {
+            loaded.add(c);
+          }
+        } catch (ExecutionException ee) {
+          // failed to load
+        } catch (InterruptedException ie) {
+          // cannot happen, the task is done
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /** Number of cached classes, including those that do not exist. */
+  public int size() {
+    return cache.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "%d classes cached, %d hits, %d misses, %d waits for concurrent loading",
+        size(), getHits(), getMisses(), getWaits());
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Matches class names against all {@link ClassPatternRule}s at once. The literal prefixes of the
+ * globs (everything before the first wildcard) are stored in a character trie, so a class name is
+ * walked only once, and only the rules whose prefix was found need to match the rest of their glob.
+ * Like a loop over all rules, {@link #match(String)} returns the first added rule that matches.
+ * <p>
+ * The glob syntax is the same as {@link AsmUtils#glob2Pattern(String...)}, but class names may also
+ * be given as internal names (slashed), so they don't need to be converted. Rules must be added before
+ * matching; matching is thread safe afterwards. */
+final class ClassPatternMatcher {
+
+  /** A rule and the remainder of its glob after the literal prefix. */
+  private static final class Entry {
+    final int index;
+    final String remainder;
+
+    Entry(int index, String remainder) {
+      this.index = index;
+      this.remainder = remainder;
+    }
+
+    boolean matches(String className, int offset) {
+      return matchGlob(remainder, 0, className, offset);
+    }
+  }
+
+  private static final class Node {
+    char[] keys = new char[0];
+    Node[] children = new Node[0];
+    Entry[] entries = new Entry[0];
+
+    Node get(char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node getOrAdd(char c) {
+      Node child = get(c);
+      if (child == null) {
+        child = new Node();
+        final int len = keys.length;
+        keys = Arrays.copyOf(keys, len + 1);
+        children = Arrays.copyOf(children, len + 1);
+        keys[len] = c;
+        children[len] = child;
+      }
+      return child;
+    }
+
+    void addEntry(Entry e) {
+      final int len = entries.length;
+      entries = Arrays.copyOf(entries, len + 1);
+      entries[len] = e;
+    }
+  }
+
+  private final Node root = new Node();
+  private final List<ClassPatternRule> rules = new ArrayList<ClassPatternRule>();
+
+  /** Adds a rule, which has lower priority than all rules added before. */
+  public void add(ClassPatternRule rule) {
+    final String glob = rule.getGlob();
+    int i = 0;
+    Node node = root;
+    while (i < glob.length() && !isWildcard(glob.charAt(i))) {
+      node = node.getOrAdd(glob.charAt(i++));
+    }
+    node.addEntry(new Entry(rules.size(), glob.substring(i)));
+    rules.add(rule);
+  }
+
+  /** Returns the first rule matching the given class (internal or binary name), or {@code null}. */
+  public ClassPatternRule match(String className) {
+    int best = Integer.MAX_VALUE;
+    Node node = root;
+    for (int i = 0, len = className.length(); node != null; i++) {
+      for (final Entry e : node.entries) {
+        if (e.index < best && e.matches(className, i)) {
+          best = e.index;
+        }
+      }
+      if (i == len) {
+        break;
+      }
+      node = node.get(toBinaryChar(className.charAt(i)));
+    }
+    return (best == Integer.MAX_VALUE) ? null : rules.get(best);
+  }
+
+  private static boolean isWildcard(char c) {
+    return c == '*' || c == '?';
+  }
+
+  private static char toBinaryChar(char c) {
+    return (c == '/') ? '.' : c;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == '/' || c == '.';
+  }
+
+  /** Matches the glob (starting at {@code gi}) against the rest of the class name (starting at {@code ni}). */
+  static boolean matchGlob(String glob, int gi, String className, int ni) {
+    final int glen = glob.length(), nlen = className.length();
+    while (gi < glen) {
+      final char c = glob.charAt(gi++);
+      switch (c) {
+        case '*':
+          final boolean crossPackages = gi < glen && glob.charAt(gi) == '*';
+          if (crossPackages) {
+            gi++;
+            if (gi == glen) {
+              return true;
+            }
+          }
+          for (int k = ni;; k++) {
+            if (matchGlob(glob, gi, className, k)) {
+              return true;
+            }
+            if (k == nlen || (!crossPackages && isSeparator(className.charAt(k)))) {
+              return false;
+            }
+          }
+
+        case '?':
+          if (ni == nlen || isSeparator(className.charAt(ni))) {
+            return false;
+          }
+          ni++;
+          break;
+
+        default:
+          if (ni == nlen || toBinaryChar(className.charAt(ni)) != c) {
+            return false;
+          }
+          ni++;
+      }
+    }
+    return ni == nlen;
+  }
+
+}
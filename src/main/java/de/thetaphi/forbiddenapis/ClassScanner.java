@@ -18,6 +18,7 @@
 
 package de.thetaphi.forbiddenapis;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
@@ -45,6 +46,9 @@ public final class ClassScanner extends ClassVisitor implements Constants {
   final List<ForbiddenViolation> violations = new ArrayList<ForbiddenViolation>();
   
   final Signatures forbiddenSignatures;
+  final VerdictCache verdictCache;
+  /** packages of the runtime, used to skip lookups of classes that are no runtime classes; may be {@code null} */
+  final RuntimePackageIndex runtimePackages;
   
   // pattern that matches binary (dotted) class name of all annotations that suppress:
   final Pattern suppressAnnotations;
@@ -62,10 +66,20 @@ public final class ClassScanner extends ClassVisitor implements Constants {
   final BitSet suppressedGroups = new BitSet();
   boolean classSuppressed = false;
   
+  // number of related classes that could not be found, verdicts depending on them are not cached:
+  private int missingClasses = 0;
+  
   public ClassScanner(RelatedClassLookup lookup, Signatures forbiddenSignatures, final Pattern suppressAnnotations) {
+    this(lookup, forbiddenSignatures, suppressAnnotations, new VerdictCache(), null);
+  }
+  
+  ClassScanner(RelatedClassLookup lookup, Signatures forbiddenSignatures, final Pattern suppressAnnotations,
+      VerdictCache verdictCache, RuntimePackageIndex runtimePackages) {
     super(Opcodes.ASM6);
     this.lookup = lookup;
     this.forbiddenSignatures = forbiddenSignatures;
+    this.verdictCache = verdictCache;
+    this.runtimePackages = runtimePackages;
     this.suppressAnnotations = suppressAnnotations;
     this.forbidNonPortableRuntime = forbiddenSignatures.isNonPortableRuntimeForbidden();
   }
@@ -85,6 +99,81 @@ public final class ClassScanner extends ClassVisitor implements Constants {
     return source;
   }
   
+  ClassSignature lookupRelatedClass(String internalName) {
+    final ClassSignature c = lookup.lookupRelatedClass(internalName);
+    if (c == null) {
+      missingClasses++;
+    }
+    return c;
+  }
+  
+  /** Looks up a class without reporting it if missing; used for optimizations that fall back to the normal checks. */
+  private ClassSignature lookupClassSilently(String internalName) {
+    if (internalName.startsWith("[")) {
+      return null;
+    }
+    try {
+      return lookup.getClassFromClassLoader(forbiddenSignatures.symbols.getBinaryName(internalName));
+    } catch (ClassNotFoundException cnfe) {
+      return null;
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    }
+  }
+  
+  /** Returns the flags of the whole class hierarchy (see {@link VerdictCache#HIERARCHY_FORBIDDEN_MEMBERS} and
+   * {@link VerdictCache#HIERARCHY_FORBIDDEN_CLASS}), or {@code -1} if some class of it is missing. */
+  private int getHierarchyFlags(String internalName) {
+    final Integer cached = verdictCache.hierarchyFlags.get(internalName);
+    if (cached != null) {
+      return cached.intValue();
+    }
+    final ClassSignature c = lookupClassSilently(internalName);
+    if (c == null) {
+      return -1;
+    }
+    int flags = 0;
+    if (forbiddenSignatures.isForbiddenMemberOwner(internalName)) {
+      flags |= VerdictCache.HIERARCHY_FORBIDDEN_MEMBERS;
+    }
+    if (forbiddenSignatures.hasClassRules() && (forbiddenSignatures.checkType(Type.getObjectType(internalName)) != null ||
+        (forbidNonPortableRuntime && c.isRuntimeClass && !AsmUtils.isPortableRuntimeClass(internalName)))) {
+      flags |= VerdictCache.HIERARCHY_FORBIDDEN_CLASS;
+    }
+    if (c.superName != null) {
+      final int superFlags = getHierarchyFlags(c.superName);
+      if (superFlags < 0) {
+        return -1;
+      }
+      flags |= superFlags;
+    }
+    if (c.interfaces != null) {
+      for (String intf : c.interfaces) {
+        final int intfFlags = getHierarchyFlags(intf);
+        if (intfFlags < 0) {
+          return -1;
+        }
+        flags |= intfFlags;
+      }
+    }
+    verdictCache.hierarchyFlags.put(internalName, Integer.valueOf(flags));
+    return flags;
+  }
+  
+  /** Returns true, if resolving a member with the given name on the owner class cannot find a violation.
+   * This is the case, if no forbidden member has this name or no class of the owner's hierarchy owns forbidden members,
+   * and the use of no class in the owner's hierarchy is forbidden. If a class of the hierarchy is missing, this returns
+   * false, so the missing class is reported by the normal checks. */
+  boolean canSkipResolution(String owner, boolean mayForbidName) {
+    final int flags = getHierarchyFlags(owner);
+    final boolean canSkip = flags >= 0 && (flags & VerdictCache.HIERARCHY_FORBIDDEN_CLASS) == 0 &&
+        (!mayForbidName || (flags & VerdictCache.HIERARCHY_FORBIDDEN_MEMBERS) == 0);
+    if (canSkip) {
+      verdictCache.skippedResolutions.incrementAndGet();
+    }
+    return canSkip;
+  }
+  
   String checkClassUse(Type type, String what, boolean deep) {
     while (type.getSort() == Type.ARRAY) {
       type = type.getElementType();
@@ -94,13 +183,16 @@ public final class ClassScanner extends ClassVisitor implements Constants {
       return String.format(Locale.ENGLISH, "Forbidden %s use: %s", what, printout);
     }
     if (deep && forbidNonPortableRuntime) {
-      final String binaryClassName = type.getClassName();
-      final ClassSignature c = lookup.lookupRelatedClass(type.getInternalName());
-      if (c != null && c.isRuntimeClass && !AsmUtils.isPortableRuntimeClass(binaryClassName)) {
-        return String.format(Locale.ENGLISH,
-          "Forbidden %s use: %s [non-portable or internal runtime class]",
-          what, binaryClassName
-        );
+      final String internalName = type.getInternalName();
+      // only load the class, if it may be a non-portable runtime class:
+      if (!AsmUtils.isPortableRuntimeClass(internalName) && (runtimePackages == null || runtimePackages.mayBeRuntimeClass(internalName))) {
+        final ClassSignature c = lookupRelatedClass(internalName);
+        if (c != null && c.isRuntimeClass) {
+          return String.format(Locale.ENGLISH,
+            "Forbidden %s use: %s [non-portable or internal runtime class]",
+            what, type.getClassName()
+          );
+        }
       }
     }
     return null;
@@ -116,8 +208,7 @@ public final class ClassScanner extends ClassVisitor implements Constants {
       if (violation != null) {
         return violation;
       }
-      final ClassSignature c = lookup.lookupRelatedClass(superName);
-      if (c != null && (violation = checkClassDefinition(c.superName, c.interfaces)) != null) {
+      if ((violation = checkClassHierarchy(superName)) != null) {
         return violation;
       }
     }
@@ -127,8 +218,7 @@ public final class ClassScanner extends ClassVisitor implements Constants {
         if (violation != null) {
           return violation;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(intf);
-        if (c != null && (violation = checkClassDefinition(c.superName, c.interfaces)) != null) {
+        if ((violation = checkClassHierarchy(intf)) != null) {
           return violation;
         }
       }
@@ -136,47 +226,59 @@ public final class ClassScanner extends ClassVisitor implements Constants {
     return null;
   }
   
+  /** Checks the super classes and interfaces of the given class. The verdict is cached for the whole run. */
+  private String checkClassHierarchy(String internalName) {
+    final String cached = verdictCache.classHierarchies.get(internalName);
+    if (cached != null) {
+      return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+    }
+    final int missingBefore = missingClasses;
+    final ClassSignature c = lookupRelatedClass(internalName);
+    final String violation = (c == null) ? null : checkClassDefinition(c.superName, c.interfaces);
+    if (missingClasses == missingBefore) {
+      verdictCache.classHierarchies.put(internalName, violation);
+    }
+    return violation;
+  }
+  
+  /** Checks the use of a class, given by its internal name (or an array descriptor, like in type instructions),
+   * including its super classes and interfaces. The verdict is cached for the whole run. */
+  String checkObjectType(String internalName) {
+    if (internalName.startsWith("[")) {
+      return checkDescriptor(internalName);
+    }
+    final String cached = verdictCache.types.get(internalName);
+    if (cached != null) {
+      return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+    }
+    final int missingBefore = missingClasses;
+    String violation = checkClassUse(Type.getObjectType(internalName), "class/interface", true);
+    if (violation == null) {
+      violation = checkClassHierarchy(internalName);
+    }
+    if (missingClasses == missingBefore) {
+      verdictCache.types.put(internalName, violation);
+    }
+    return violation;
+  }
+  
   String checkType(Type type) {
     while (type != null) {
-      String violation;
       switch (type.getSort()) {
         case Type.OBJECT:
-          violation = checkClassUse(type, "class/interface", true);
-          if (violation != null) {
-            return violation;
-          }
-          final ClassSignature c = lookup.lookupRelatedClass(type.getInternalName());
-          if (c == null) return null;
-          return checkClassDefinition(c.superName, c.interfaces);
+          return checkObjectType(type.getInternalName());
         case Type.ARRAY:
           type = type.getElementType();
           break;
         case Type.METHOD:
-          final ArrayList<String> violations = new ArrayList<String>();
-          violation = checkType(type.getReturnType());
-          if (violation != null) {
-            violations.add(violation);
-          }
+          String violations = checkType(type.getReturnType());
           for (final Type t : type.getArgumentTypes()) {
-            violation = checkType(t);
+            final String violation = checkType(t);
             if (violation != null) {
-              violations.add(violation);
+              violations = (violations == null) ? violation : (violations + ForbiddenViolation.SEPARATOR + violation);
             }
           }
-          if (violations.isEmpty()) {
-            return null;
-          } else if (violations.size() == 1) {
-            return violations.get(0);
-          } else {
-            final StringBuilder sb = new StringBuilder();
-            boolean nl = false;
-            for (final String v : violations) {
-              if (nl) sb.append(ForbiddenViolation.SEPARATOR);
-              sb.append(v);
-              nl = true;
-            }
-            return sb.toString();
-          }
+          return violations;
         default:
           return null;
       }
@@ -184,8 +286,21 @@ public final class ClassScanner extends ClassVisitor implements Constants {
     return null;
   }
   
+  /** Checks a field, method, or type descriptor. The verdict is cached for the whole run. */
   String checkDescriptor(String desc) {
-    return checkType(Type.getType(desc));
+    if (desc.length() == 1) {
+      return null; // primitive type
+    }
+    final String cached = verdictCache.descriptors.get(desc);
+    if (cached != null) {
+      return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+    }
+    final int missingBefore = missingClasses;
+    final String violation = checkType(Type.getType(desc));
+    if (missingClasses == missingBefore) {
+      verdictCache.descriptors.put(desc, violation);
+    }
+    return violation;
   }
   
   String checkAnnotationDescriptor(Type type, boolean visible) {
@@ -307,51 +422,83 @@ public final class ClassScanner extends ClassVisitor implements Constants {
         }
       }
       
-      private String checkMethodAccess(String owner, Method method) {
+      /** Checks a method invocation, given by the name and descriptor passed to the ASM visitor. The verdict is cached
+       * for the whole run, so a repeated invocation only costs a lookup without allocations. */
+      private String checkMethodAccess(String owner, String name, String desc) {
+        final String cached = verdictCache.invocations.get(owner, name, desc);
+        if (cached != null) {
+          return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+        }
+        final int missingBefore = missingClasses;
+        final String violation = resolveMethodInvocation(owner, name, desc);
+        if (missingClasses == missingBefore) {
+          verdictCache.invocations.put(owner, name, desc, violation);
+        }
+        return violation;
+      }
+      
+      private String resolveMethodInvocation(String owner, String name, String desc) {
         String violation = checkClassUse(owner, "class/interface");
         if (violation != null) {
           return violation;
         }
-        if  (CLASS_CONSTRUCTOR_METHOD_NAME.equals(method.getName())) {
+        if  (CLASS_CONSTRUCTOR_METHOD_NAME.equals(name)) {
           // we don't check for violations on class constructors
           return null;
         }
-        return checkMethodAccessRecursion(owner, method, true);
+        return checkMethodAccessRecursion(owner, name, desc, true);
+      }
+      
+      /** Resolves the method through super classes and interfaces. The verdict is cached for the whole run. */
+      private String checkMethodAccessRecursion(String owner, String name, String desc, boolean checkClassUse) {
+        if (canSkipResolution(owner, forbiddenSignatures.mayForbidMethod(name))) {
+          return null;
+        }
+        final VerdictCache.MethodMemo memo = checkClassUse ? verdictCache.methods : verdictCache.interfaceMethods;
+        final String cached = memo.get(owner, name, desc);
+        if (cached != null) {
+          return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+        }
+        final int missingBefore = missingClasses;
+        final String violation = resolveMethodAccess(owner, name, desc, checkClassUse);
+        if (missingClasses == missingBefore) {
+          memo.put(owner, name, desc, violation);
+        }
+        return violation;
       }
       
-      private String checkMethodAccessRecursion(String owner, Method method, boolean checkClassUse) {
-        String printout = forbiddenSignatures.checkMethod(owner, method);
+      private String resolveMethodAccess(String owner, String name, String desc, boolean checkClassUse) {
+        String printout = forbiddenSignatures.checkMethod(owner, name, desc);
         if (printout != null) {
           return "Forbidden method invocation: " + printout;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(owner);
+        final ClassSignature c = lookupRelatedClass(owner);
         if (c != null) {
-          if (c.signaturePolymorphicMethods.contains(method.getName())) {
+          if (c.isSignaturePolymorphicMethod(name)) {
             // convert the invoked descriptor to a signature polymorphic one for the lookup
-            final Method lookupMethod = new Method(method.getName(), SIGNATURE_POLYMORPHIC_DESCRIPTOR);
-            printout = forbiddenSignatures.checkMethod(owner, lookupMethod);
+            printout = forbiddenSignatures.checkMethod(owner, name, SIGNATURE_POLYMORPHIC_DESCRIPTOR);
             if (printout != null) {
               return "Forbidden method invocation: " + printout;
             }
           }
           String violation;
-          if (checkClassUse && c.methods.contains(method)) {
+          if (checkClassUse && c.hasMethod(name, desc)) {
             violation = checkClassUse(owner, "class/interface");
             if (violation != null) {
               return violation;
             }
           }
-          if (CONSTRUCTOR_METHOD_NAME.equals(method.getName())) {
+          if (CONSTRUCTOR_METHOD_NAME.equals(name)) {
             return null; // don't look into superclasses or interfaces to find constructors!
           }
-          if (c.superName != null && (violation = checkMethodAccessRecursion(c.superName, method, true)) != null) {
+          if (c.superName != null && (violation = checkMethodAccessRecursion(c.superName, name, desc, true)) != null) {
             return violation;
           }
           // JVM spec says: interfaces after superclasses
           if (c.interfaces != null) {
             for (String intf : c.interfaces) {
               // for interfaces we don't check the class use (it is too strict, if just the interface is implemented, but nothing more!):
-              if (intf != null && (violation = checkMethodAccessRecursion(intf, method, false)) != null) {
+              if (intf != null && (violation = checkMethodAccessRecursion(intf, name, desc, false)) != null) {
                 return violation;
               }
             }
@@ -360,7 +507,24 @@ public final class ClassScanner extends ClassVisitor implements Constants {
         return null;
       }
       
+      /** Resolves the field through interfaces and super classes. The verdict is cached for the whole run. */
       private String checkFieldAccess(String owner, String field) {
+        if (canSkipResolution(owner, forbiddenSignatures.mayForbidField(field))) {
+          return null;
+        }
+        final String cached = verdictCache.fields.get(owner, field);
+        if (cached != null) {
+          return (cached == VerdictCache.Memo.CLEAN) ? null : cached;
+        }
+        final int missingBefore = missingClasses;
+        final String violation = resolveFieldAccess(owner, field);
+        if (missingClasses == missingBefore) {
+          verdictCache.fields.put(owner, field, violation);
+        }
+        return violation;
+      }
+      
+      private String resolveFieldAccess(String owner, String field) {
         String violation = checkClassUse(owner, "class/interface");
         if (violation != null) {
           return violation;
@@ -369,9 +533,9 @@ public final class ClassScanner extends ClassVisitor implements Constants {
         if (printout != null) {
           return "Forbidden field access: " + printout;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(owner);
+        final ClassSignature c = lookupRelatedClass(owner);
         // if we have seen the field already, no need to look into superclasses (fields cannot override)
-        if (c != null && !c.fields.contains(field)) {
+        if (c != null && !c.hasField(field)) {
           if (c.interfaces != null) {
             for (String intf : c.interfaces) {
               if (intf != null && (violation = checkFieldAccess(intf, field)) != null) {
@@ -399,14 +563,13 @@ public final class ClassScanner extends ClassVisitor implements Constants {
           case Opcodes.H_INVOKESPECIAL:
           case Opcodes.H_NEWINVOKESPECIAL:
           case Opcodes.H_INVOKEINTERFACE:
-            final Method m = new Method(handle.getName(), handle.getDesc());
             if (checkLambdaHandle && handle.getOwner().equals(internalMainClassName) && handle.getName().startsWith(LAMBDA_METHOD_NAME_PREFIX)) {
               // as described in <http://cr.openjdk.java.net/~briangoetz/lambda/lambda-translation.html>,
               // we will record this metafactory call as "lambda" invokedynamic,
               // so we can assign the called lambda with the same groupId like *this* method:
-              lambdas.put(m, currentGroupId);
+              lambdas.put(new Method(handle.getName(), handle.getDesc()), currentGroupId);
             }
-            return checkMethodAccess(handle.getOwner(), m);
+            return checkMethodAccess(handle.getOwner(), handle.getName(), handle.getDesc());
         }
         return null;
       }
@@ -464,7 +627,7 @@ public final class ClassScanner extends ClassVisitor implements Constants {
       
       @Override
       public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-        reportMethodViolation(checkMethodAccess(owner, new Method(name, desc)), "method body");
+        reportMethodViolation(checkMethodAccess(owner, name, desc), "method body");
       }
       
       @Override
@@ -475,7 +638,7 @@ public final class ClassScanner extends ClassVisitor implements Constants {
       @Override
       public void visitTypeInsn(int opcode, String type) {
         if (opcode == Opcodes.ANEWARRAY) {
-          reportMethodViolation(checkType(Type.getObjectType(type)), "method body");
+          reportMethodViolation(checkObjectType(type), "method body");
         }
       }
       
@@ -18,10 +18,13 @@
 
 package de.thetaphi.forbiddenapis;
 
+import java.io.IOException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Comparator;
+import java.util.List;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -32,99 +35,351 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
 
 /** Utility class that is used to get an overview of all fields and implemented
- * methods of a class. It make the signatures available as Sets. */
+ * methods of a class. The class header (super class and interfaces) is read eagerly,
+ * the members of related classes are only read again from their origin on first access,
+ * because most of them are only needed for their hierarchy. The members are stored in sorted arrays, which are
+ * searched binary, because thousands of these signatures are cached. */
 final class ClassSignature implements Constants {
   private ClassReader reader;
+  /** Source of a class to check, which is read again when it is scanned (see {@link Checker.Option#STREAMING_SCAN}) */
+  private ClassSource source;
+  /** SHA-1 hash of the class file of a class to check, computed when it was read first, or {@code null} */
+  private byte[] bytecodeHash;
   
   public final boolean isRuntimeClass;
-  public final Set<Method> methods;
-  public final Set<String> fields, signaturePolymorphicMethods;
   public final String className, superName;
   public final String[] interfaces;
   
-  /** Builds the information from an ASM ClassReader */
-  public ClassSignature(final ClassReader classReader, boolean isRuntimeClass, boolean withReader) {
-    this.reader = withReader ? classReader : null;
+  /** The source of the members, until they are parsed: a {@link ClassReader}, {@link ClassSource}, or a {@link Class} */
+  private Object memberSource;
+  /** The table to intern the names of the members, until they are parsed */
+  private SymbolTable symbols;
+  private volatile Members members;
+  
+  private static final String[] EMPTY = new String[0];
+  
+  /** Immutable members of a class: methods are sorted by name and descriptor (parallel arrays), the others by name. */
+  private static final class Members {
+    final String[] methodNames, methodDescriptors, fields, signaturePolymorphicMethods;
+    
+    Members(final List<String> methodNames, final List<String> methodDescriptors, List<String> fields, List<String> signaturePolymorphicMethods) {
+      final int count = methodNames.size();
+      final Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return compareMethod(methodNames.get(a), methodDescriptors.get(a), methodNames.get(b), methodDescriptors.get(b));
+        }
+      });
+      this.methodNames = (count == 0) ? EMPTY : new String[count];
+      this.methodDescriptors = (count == 0) ? EMPTY : new String[count];
+      for (int i = 0; i < count; i++) {
+        this.methodNames[i] = methodNames.get(order[i]);
+        this.methodDescriptors[i] = methodDescriptors.get(order[i]);
+      }
+      this.fields = toSortedArray(fields);
+      this.signaturePolymorphicMethods = toSortedArray(signaturePolymorphicMethods);
+    }
+    
+    /** Creates the members from arrays, which are already sorted. */
+    Members(String[] methodNames, String[] methodDescriptors, String[] fields, String[] signaturePolymorphicMethods) {
+      this.methodNames = methodNames;
+      this.methodDescriptors = methodDescriptors;
+      this.fields = fields;
+      this.signaturePolymorphicMethods = signaturePolymorphicMethods;
+    }
+    
+    private static String[] toSortedArray(List<String> list) {
+      if (list.isEmpty()) {
+        return EMPTY;
+      }
+      final String[] array = list.toArray(new String[list.size()]);
+      Arrays.sort(array);
+      return array;
+    }
+    
+    static int compareMethod(String name1, String desc1, String name2, String desc2) {
+      final int cmp = name1.compareTo(name2);
+      return (cmp != 0) ? cmp : desc1.compareTo(desc2);
+    }
+    
+    /** Returns the index of the first method with the given name and a descriptor not less than the given one. */
+    int lowerBound(String name, String desc) {
+      int lo = 0, hi = methodNames.length;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (compareMethod(methodNames[mid], methodDescriptors[mid], name, desc) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+  
+  /** Reads the class header from an ASM ClassReader, all names are interned using the given symbol table */
+  private ClassSignature(final ClassReader classReader, boolean isRuntimeClass, SymbolTable symbols) {
+    this.isRuntimeClass = isRuntimeClass;
+    this.className = symbols.intern(classReader.getClassName());
+    this.superName = symbols.intern(classReader.getSuperName());
+    this.interfaces = symbols.intern(classReader.getInterfaces());
+    this.symbols = symbols;
+  }
+  
+  /** Builds the information from an ASM ClassReader, all names are interned using the given symbol table. If the reader
+   * is not kept for scanning the class, the members are parsed immediately, so the bytecode is not kept in memory. */
+  public ClassSignature(final ClassReader classReader, boolean isRuntimeClass, boolean withReader, SymbolTable symbols) {
+    this(classReader, isRuntimeClass, symbols);
+    if (withReader) {
+      this.reader = classReader;
+      this.memberSource = classReader;
+    } else {
+      this.members = parseMembers(classReader);
+      this.symbols = null;
+    }
+  }
+  
+  /** Builds the information of a related class from an ASM ClassReader, but only keeps the header. The members are read
+   * again from the given origin on first access, so the bytecode is not kept in memory. */
+  public ClassSignature(final ClassReader classReader, boolean isRuntimeClass, ClassSource origin, SymbolTable symbols) {
+    this(classReader, isRuntimeClass, symbols);
+    this.memberSource = origin;
+  }
+  
+  /** Builds the information of a class to check from an ASM ClassReader, but only keeps the header. The given source
+   * is read again, when the class is scanned or its members are needed. The hash of the class file may be {@code null},
+   * if it is not needed (see {@link #getBytecodeHash()}). */
+  public ClassSignature(final ClassReader classReader, ClassSource source, byte[] bytecodeHash, SymbolTable symbols) {
+    this(classReader, false, source, symbols);
+    this.source = source;
+    this.bytecodeHash = bytecodeHash;
+  }
+
+  /** Alternative ctor that can be used to build the information via reflection from an already loaded class. Useful for Java 9 Jigsaw. */
+  public ClassSignature(final Class<?> clazz, boolean isRuntimeClass, SymbolTable symbols) {
+    this.reader = null; // no reader available!
+    this.isRuntimeClass = isRuntimeClass;
+    this.className = symbols.intern(Type.getType(clazz).getInternalName());
+    final Class<?> superclazz = clazz.getSuperclass();
+    this.superName = superclazz == null ? null : symbols.intern(Type.getType(superclazz).getInternalName());
+    final Class<?>[] interfClasses = clazz.getInterfaces();
+    this.interfaces = new String[interfClasses.length];
+    for (int i = 0; i < interfClasses.length; i++) {
+      this.interfaces[i] = symbols.intern(Type.getType(interfClasses[i]).getInternalName());
+    }
+    this.memberSource = clazz;
+    this.symbols = symbols;
+  }
+  
+  /** Alternative ctor to restore a signature stored by {@link SignatureCacheFile}. The member arrays must be sorted
+   * like returned by {@link #getDeclaredMethodNames()} and the other getters. */
+  ClassSignature(String className, String superName, String[] interfaces, boolean isRuntimeClass,
+      String[] methodNames, String[] methodDescriptors, String[] fields, String[] signaturePolymorphicMethods) {
+    this.reader = null; // no reader available!
     this.isRuntimeClass = isRuntimeClass;
-    this.className = classReader.getClassName();
-    this.superName = classReader.getSuperName();
-    this.interfaces = classReader.getInterfaces();
-    final Set<Method> methods = new HashSet<Method>();
-    final Set<String> fields = new HashSet<String>();
-    final Set<String> signaturePolymorphicMethods = new HashSet<String>();
+    this.className = className;
+    this.superName = superName;
+    this.interfaces = interfaces;
+    this.members = new Members(methodNames, methodDescriptors, fields, signaturePolymorphicMethods);
+  }
+  
+  private Members getMembers() {
+    Members m = members;
+    if (m == null) {
+      synchronized (this) {
+        m = members;
+        if (m == null) {
+          if (memberSource instanceof ClassReader) {
+            m = parseMembers((ClassReader) memberSource);
+          } else if (memberSource instanceof ClassSource) {
+            m = parseMembers(readClass((ClassSource) memberSource));
+          } else {
+            m = reflectMembers((Class<?>) memberSource);
+          }
+          members = m;
+          memberSource = null;
+          symbols = null;
+        }
+      }
+    }
+    return m;
+  }
+  
+  private static ClassReader readClass(ClassSource source) {
+    try {
+      return AsmUtils.readAndPatchClass(source.read());
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    }
+  }
+  
+  private Members parseMembers(ClassReader classReader) {
+    final List<String> methodNames = new ArrayList<String>(), methodDescriptors = new ArrayList<String>();
+    final List<String> fields = new ArrayList<String>();
+    final List<String> signaturePolymorphicMethods = new ArrayList<String>();
     classReader.accept(new ClassVisitor(Opcodes.ASM6) {
       @Override
       public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-        final Method m = new Method(name, desc);
-        methods.add(m);
+        methodNames.add(symbols.intern(name));
+        methodDescriptors.add(symbols.intern(desc));
         if (className.startsWith(SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
             (access & Opcodes.ACC_VARARGS) != 0 &&
             (access & Opcodes.ACC_NATIVE) != 0 &&
             SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)
         ) {
-          signaturePolymorphicMethods.add(name);
+          signaturePolymorphicMethods.add(symbols.intern(name));
         }
         return null;
       }
       
       @Override
       public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
-        fields.add(name);
+        fields.add(symbols.intern(name));
         return null;
       }
     }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-    this.methods = createSet(methods);
-    this.fields = createSet(fields);
-    this.signaturePolymorphicMethods = createSet(signaturePolymorphicMethods);
+    return new Members(methodNames, methodDescriptors, fields, signaturePolymorphicMethods);
   }
-
-  /** Alternative ctor that can be used to build the information via reflection from an already loaded class. Useful for Java 9 Jigsaw. */
-  public ClassSignature(final Class<?> clazz, boolean isRuntimeClass) {
-    this.reader = null; // no reader available!
-    this.isRuntimeClass = isRuntimeClass;
-    this.className = Type.getType(clazz).getInternalName();
-    final Class<?> superclazz = clazz.getSuperclass();
-    this.superName = superclazz == null ? null : Type.getType(superclazz).getInternalName();
-    final Class<?>[] interfClasses = clazz.getInterfaces();
-    this.interfaces = new String[interfClasses.length];
-    for (int i = 0; i < interfClasses.length; i++) {
-      this.interfaces[i] = Type.getType(interfClasses[i]).getInternalName();
-    }
-    final Set<Method> methods = new HashSet<Method>();
-    final Set<String> fields = new HashSet<String>();
-    final Set<String> signaturePolymorphicMethods = new HashSet<String>();
+  
+  private Members reflectMembers(Class<?> clazz) {
+    final List<String> methodNames = new ArrayList<String>(), methodDescriptors = new ArrayList<String>();
+    final List<String> fields = new ArrayList<String>();
+    final List<String> signaturePolymorphicMethods = new ArrayList<String>();
     for (final java.lang.reflect.Method m : clazz.getDeclaredMethods()) {
-      methods.add(Method.getMethod(m));
+      final String desc = symbols.intern(Type.getMethodDescriptor(m));
+      methodNames.add(symbols.intern(m.getName()));
+      methodDescriptors.add(desc);
       if (className.startsWith(SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
           m.isVarArgs() &&
           (m.getModifiers() & Modifier.NATIVE) != 0 &&
-          SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(Type.getMethodDescriptor(m))
+          SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)
       ) {
-        signaturePolymorphicMethods.add(m.getName());
+        signaturePolymorphicMethods.add(symbols.intern(m.getName()));
       }
     }
     for (final java.lang.reflect.Constructor<?> m : clazz.getDeclaredConstructors()) {
-      methods.add(Method.getMethod(m));
+      methodNames.add(symbols.intern(CONSTRUCTOR_METHOD_NAME));
+      methodDescriptors.add(symbols.intern(Type.getConstructorDescriptor(m)));
     }
     for (final java.lang.reflect.Field f : clazz.getDeclaredFields()) {
-      fields.add(f.getName());
+      fields.add(symbols.intern(f.getName()));
+    }
+    return new Members(methodNames, methodDescriptors, fields, signaturePolymorphicMethods);
+  }
+  
+  /** Returns true, if the class declares the given method (or constructor). */
+  public boolean hasMethod(String name, String descriptor) {
+    final Members m = getMembers();
+    final int i = m.lowerBound(name, descriptor);
+    return i < m.methodNames.length && m.methodNames[i].equals(name) && m.methodDescriptors[i].equals(descriptor);
+  }
+  
+  /** Returns true, if the class declares the given method (or constructor). */
+  public boolean hasMethod(Method method) {
+    return hasMethod(method.getName(), method.getDescriptor());
+  }
+  
+  /** Returns the descriptors of all declared methods with the given name (including covariant overrides). */
+  public List<String> getMethodDescriptors(String name) {
+    final Members m = getMembers();
+    int i = m.lowerBound(name, "");
+    if (i == m.methodNames.length || !m.methodNames[i].equals(name)) {
+      return Collections.emptyList();
+    }
+    final List<String> descriptors = new ArrayList<String>();
+    for (; i < m.methodNames.length && m.methodNames[i].equals(name); i++) {
+      descriptors.add(m.methodDescriptors[i]);
+    }
+    return descriptors;
+  }
+  
+  /** Returns all declared methods (including constructors) as new {@link Method} instances. */
+  public List<Method> getMethods() {
+    final Members m = getMembers();
+    final List<Method> methods = new ArrayList<Method>(m.methodNames.length);
+    for (int i = 0; i < m.methodNames.length; i++) {
+      methods.add(new Method(m.methodNames[i], m.methodDescriptors[i]));
     }
-    this.methods = createSet(methods);
-    this.fields = createSet(fields);
-    this.signaturePolymorphicMethods = createSet(signaturePolymorphicMethods);
+    return methods;
+  }
+  
+  /** Returns true, if the class declares a field with the given name. */
+  public boolean hasField(String name) {
+    return Arrays.binarySearch(getMembers().fields, name) >= 0;
+  }
+  
+  /** Returns true, if the class declares a signature polymorphic method with the given name. */
+  public boolean isSignaturePolymorphicMethod(String name) {
+    return Arrays.binarySearch(getMembers().signaturePolymorphicMethods, name) >= 0;
+  }
+
+  /** Returns the names of all declared methods, sorted by name and descriptor (parallel to {@link #getDeclaredMethodDescriptors()}).
+   * The returned array must not be modified. */
+  String[] getDeclaredMethodNames() {
+    return getMembers().methodNames;
+  }
+  
+  /** Returns the descriptors of all declared methods (parallel to {@link #getDeclaredMethodNames()}). The returned array must not be modified. */
+  String[] getDeclaredMethodDescriptors() {
+    return getMembers().methodDescriptors;
+  }
+  
+  /** Returns the sorted names of all declared fields. The returned array must not be modified. */
+  String[] getDeclaredFields() {
+    return getMembers().fields;
   }
   
-  private static <T> Set<T> createSet(Set<? extends T> s) {
-    return s.isEmpty() ? Collections.<T>emptySet() : Collections.<T>unmodifiableSet(s);
+  /** Returns the sorted names of all signature polymorphic methods. The returned array must not be modified. */
+  String[] getSignaturePolymorphicMethods() {
+    return getMembers().signaturePolymorphicMethods;
   }
 
+  /** Returns the SHA-1 hash of the class file of a class to check, which was not yet checked (see {@link ResultStore}).
+   * In streaming mode, the class file is only read for this, if the hash was not computed when reading it first. */
+  byte[] getBytecodeHash() throws IOException {
+    if (bytecodeHash != null) {
+      return bytecodeHash;
+    }
+    if (reader != null) {
+      return ResultStore.hash(reader.b);
+    }
+    if (source != null) {
+      return ResultStore.hash(source.read());
+    }
+    throw new IllegalStateException("'" + Type.getObjectType(className).getClassName() + "' has no class file, because it was already checked or is only loaded as related class.");
+  }
+  
+  /** Returns the reader of a class to check. The members are parsed before. In streaming mode, the class file is read
+   * again for each call, so the bytecode is not kept in memory after the class was checked. */
   public ClassReader getReader() {
+    ClassReader reader = this.reader;
+    if (reader == null && source != null) {
+      reader = readClass(source);
+      synchronized (this) {
+        if (members == null) {
+          // parse the members from this reader, instead of reading the class again:
+          memberSource = reader;
+        }
+      }
+    }
     if (reader == null)
-      throw new IllegalStateException("'" + Type.getObjectType(className).getClassName() + "' has no ClassReader, because it was already checked or is only loaded as related class.");
+      throw new IllegalStateException("'" + Type.getObjectType(className).getClassName() + "' has no ClassReader, because it was already checked in pipelined mode or is only loaded as related class.");
+    getMembers();
+    return reader;
+  }
+  
+  /** Returns the reader of a class to check like {@link #getReader()} and releases it, so the bytecode is not kept in
+   * memory after the class was checked. The class can't be checked again. */
+  ClassReader takeReader() {
     try {
-      return reader;
+      return getReader();
     } finally {
       reader = null;
+      source = null;
     }
   }
 }
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/** A class file to check, which is only read when needed. */
+abstract class ClassSource {
+
+  /** Reads the contents of the class file. */
+  public abstract byte[] read() throws IOException;
+
+  /** Returns the name of the class file, used in messages. */
+  @Override
+  public abstract String toString();
+
+  /** Returns a source reading the given file. */
+  public static ClassSource of(final File file) {
+    return new ClassSource() {
+      @Override
+      public byte[] read() throws IOException {
+        return AsmUtils.readFile(file);
+      }
+
+      @Override
+      public String toString() {
+        return file.toString();
+      }
+    };
+  }
+
+  /** Returns a source reading the given entry of a JAR file. */
+  public static ClassSource of(final JarReader reader, final String entryName) {
+    return new ClassSource() {
+      @Override
+      public byte[] read() throws IOException {
+        final byte[] bytecode = reader.read(entryName);
+        if (bytecode == null) {
+          throw new FileNotFoundException(toString());
+        }
+        return bytecode;
+      }
+
+      @Override
+      public String toString() {
+        return reader + "!/" + entryName;
+      }
+    };
+  }
+
+  /** Returns a source for an already read class file. */
+  public static ClassSource of(final byte[] bytecode, final String name) {
+    return new ClassSource() {
+      @Override
+      public byte[] read() {
+        return bytecode;
+      }
+
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+
+}
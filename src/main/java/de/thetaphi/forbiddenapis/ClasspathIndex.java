@@ -0,0 +1,359 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+/** Index of all class files visible to a {@link ClassLoader}, created from the central directories of the JAR files and the
+ * listings of the directories on its classpath. {@link ClassLoader#getResource(String)} walks all classpath entries for every
+ * class, which is slow for large classpaths, especially for classes that do not exist. With the index, the classpath entry
+ * containing a class is found with a single lookup.
+ * <p>
+ * The index follows the parent delegation of the class loaders (the first classpath entry wins) and the {@code Class-Path}
+ * attribute of JAR manifests. Classes in packages of Java 9+ modules, and classes in multi-release JAR files, are still looked
+ * up through the class loader. The index can only be created for {@link URLClassLoader}s and the built-in class loaders of the
+ * runtime; this class is thread safe after creation. */
+final class ClasspathIndex {
+
+  /** An entry of the classpath: a directory or a JAR file. */
+  static final class Root {
+    final File file;
+    final boolean isJar;
+    final URL url;
+    boolean multiRelease = false;
+    /** reader of a JAR file, {@code null} if its classes are loaded through the class loader */
+    JarReader reader;
+
+    Root(File file, boolean isJar) throws MalformedURLException {
+      this.file = file;
+      this.isJar = isJar;
+      this.url = file.toURI().toURL();
+    }
+
+    /** Reads the given class file from this entry; returns {@code null}, if it does not exist. */
+    byte[] read(String resourceName) throws IOException {
+      if (isJar) {
+        return reader.read(resourceName);
+      }
+      final File f = new File(file, resourceName);
+      return f.isFile() ? AsmUtils.readFile(f) : null;
+    }
+
+    /** Returns the URL of the given resource in this entry, like {@link URLClassLoader} would return. */
+    URL getResource(String resourceName) throws MalformedURLException {
+      return isJar ? new URL("jar:" + url + "!/" + resourceName) : new URL(url, resourceName);
+    }
+
+    @Override
+    public String toString() {
+      return file.toString();
+    }
+  }
+
+  private final ClassLoader loader;
+  /** key is the resource name of the class file, value the first classpath entry containing it */
+  private final Map<String,Root> classes = new HashMap<String,Root>();
+  private final List<Root> roots = new ArrayList<Root>();
+  private final Set<File> visited = new HashSet<File>();
+  /** packages (internal names) of the Java 9+ modules, which are looked up through the class loader; {@code null} before Java 9 */
+  private final Set<String> modulePackages;
+  private final JarReader.InflaterPool inflaters = new JarReader.InflaterPool();
+  /** set to {@code false}, if a classpath entry cannot be indexed */
+  private boolean complete = true;
+
+  private ClasspathIndex(ClassLoader loader, Set<String> modulePackages) {
+    this.loader = loader;
+    this.modulePackages = modulePackages;
+  }
+
+  private boolean isModulePackage(String resourceName) {
+    if (modulePackages == null) {
+      return false;
+    }
+    final int p = resourceName.lastIndexOf('/');
+    return modulePackages.contains((p < 0) ? "" : resourceName.substring(0, p));
+  }
+
+  /** Returns the classpath entry containing the given class file, if the class file can be read directly from it
+   * (see {@link Root#read(String)}). Otherwise returns {@code null}, then {@link #getResource(String)} must be used. */
+  public Root getRoot(String resourceName) {
+    if (isModulePackage(resourceName)) {
+      return null;
+    }
+    final Root root = classes.get(resourceName);
+    if (root == null || (root.isJar && (root.reader == null || root.multiRelease))) {
+      return null;
+    }
+    return root;
+  }
+
+  /** Returns the URL of the given class file resource, or {@code null}, if it is not found in the classpath. */
+  public URL getResource(String resourceName) throws IOException {
+    if (isModulePackage(resourceName)) {
+      return loader.getResource(resourceName);
+    }
+    final Root root = classes.get(resourceName);
+    if (root == null) {
+      return null;
+    }
+    if ((root.isJar && root.reader == null) || root.multiRelease || !isPlainResourceName(resourceName)) {
+      // the class loader decides about the version of the class or how to escape the name:
+      return loader.getResource(resourceName);
+    }
+    return root.getResource(resourceName);
+  }
+
+  /** Number of indexed classes. */
+  public int size() {
+    return classes.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "%d classes in %d classpath entries", classes.size(), roots.size());
+  }
+
+  /** Adds the paths, sizes and modification times of all classpath entries to the given digest, so changes of the
+   * classpath are detected (see {@link ResultStore}). JAR files also add the checksum of their central directory,
+   * directories add each of their class files, except the given ones (resource names). */
+  void updateDigest(MessageDigest md, Set<String> excludedResources) {
+    for (final Root root : roots) {
+      if (root.isJar) {
+        ResultStore.update(md, "jar", root.file.getPath(), Long.toString(root.file.length()), Long.toString(root.file.lastModified()),
+            (root.reader == null) ? "-" : Long.toHexString(root.reader.getDirectoryChecksum()));
+      } else {
+        ResultStore.update(md, "dir", root.file.getPath());
+      }
+    }
+    for (final Map.Entry<String,Root> e : new TreeMap<String,Root>(classes).entrySet()) {
+      final Root root = e.getValue();
+      if (!root.isJar && !excludedResources.contains(e.getKey())) {
+        final File f = new File(root.file, e.getKey());
+        ResultStore.update(md, "class", root.file.getPath(), e.getKey(), Long.toString(f.length()), Long.toString(f.lastModified()));
+      }
+    }
+  }
+
+  /** Closes all JAR files. The index must not be used by other threads while it's closed. */
+  public void close() {
+    for (final Root root : roots) {
+      if (root.reader != null) {
+        root.reader.close();
+      }
+    }
+    inflaters.close();
+  }
+
+  private static boolean isPlainResourceName(String resourceName) {
+    for (int i = 0, len = resourceName.length(); i < len; i++) {
+      final char c = resourceName.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '/' || c == '.' || c == '$' || c == '_' || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Creates the index for the given class loader and all its parents; returns {@code null}, if the classpath of any of them is unknown. */
+  static ClasspathIndex create(ClassLoader loader) throws IOException {
+    final Set<String> modulePackages = RuntimePackageIndex.getBootLayerPackages(false);
+    final List<ClassLoader> chain = new ArrayList<ClassLoader>();
+    for (ClassLoader l = loader; l != null; l = l.getParent()) {
+      chain.add(l);
+    }
+    // parents first, like the class loaders delegate:
+    Collections.reverse(chain);
+    final ClasspathIndex index = new ClasspathIndex(loader, modulePackages);
+    if (modulePackages == null) {
+      // legacy runtime: the boot classpath is searched first
+      final String bootClassPath = System.getProperty("sun.boot.class.path");
+      if (bootClassPath == null) {
+        return null;
+      }
+      index.addClassPath(bootClassPath);
+    } else if (System.getProperty("jdk.boot.class.path.append") != null) {
+      return null; // boot classes outside of modules
+    }
+    for (final ClassLoader l : chain) {
+      if (l instanceof URLClassLoader) {
+        for (final URL url : ((URLClassLoader) l).getURLs()) {
+          if (!index.addURL(url)) {
+            return null;
+          }
+        }
+      } else if (modulePackages != null && l.getClass().getName().startsWith("jdk.internal.loader.")) {
+        // Java 9+ built-in class loaders: the platform class loader only has modules, the application class loader also the classpath
+        if (l == ClassLoader.getSystemClassLoader()) {
+          index.addClassPath(System.getProperty("java.class.path", ""));
+        }
+      } else {
+        return null;
+      }
+    }
+    return index.complete ? index : null;
+  }
+
+  private void addClassPath(String classPath) throws IOException {
+    for (final String element : classPath.split(Pattern.quote(File.pathSeparator), -1)) {
+      // empty elements are the current directory:
+      final File f = new File(element.isEmpty() ? "." : element);
+      addRoot(f, !f.isDirectory());
+    }
+  }
+
+  /** Adds the classpath entry of the given URL; returns {@code false}, if it's not a local file. */
+  private boolean addURL(URL url) throws IOException {
+    if (!"file".equalsIgnoreCase(url.getProtocol())) {
+      return false;
+    }
+    final File f;
+    try {
+      f = new File(url.toURI());
+    } catch (URISyntaxException use) {
+      return false;
+    } catch (IllegalArgumentException iae) {
+      return false;
+    }
+    // URLClassLoader treats all URLs not ending with a slash as JAR files:
+    addRoot(f, !url.getPath().endsWith("/"));
+    return true;
+  }
+
+  private void addRoot(File f, boolean isJar) throws IOException {
+    final File canonical = f.getCanonicalFile();
+    if (!visited.add(canonical)) {
+      return;
+    }
+    final Root root = new Root(canonical, isJar);
+    if (isJar) {
+      if (canonical.isFile()) {
+        roots.add(root);
+        addJar(root);
+      }
+    } else if (canonical.isDirectory()) {
+      roots.add(root);
+      addDirectory(root, canonical, "");
+    }
+  }
+
+  private void addJar(Root root) throws IOException {
+    Manifest manifest;
+    JarReader reader = null;
+    try {
+      reader = JarReader.open(root.file, inflaters);
+      for (final String name : reader.getNames()) {
+        addJarEntry(name, root);
+      }
+      final byte[] bytes = reader.read(JarFile.MANIFEST_NAME);
+      manifest = (bytes == null) ? null : new Manifest(new ByteArrayInputStream(bytes));
+      root.reader = reader;
+    } catch (IOException ioe) {
+      if (reader != null) {
+        reader.close();
+      }
+      // not supported by JarReader (e.g., ZIP64 files), so the classes are loaded through the class loader:
+      final JarFile jar;
+      try {
+        jar = new JarFile(root.file, false);
+      } catch (IOException ioe2) {
+        return; // not a valid JAR file, so no classes can be loaded from it
+      }
+      try {
+        final Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          addJarEntry(entries.nextElement().getName(), root);
+        }
+        manifest = jar.getManifest();
+      } finally {
+        jar.close();
+      }
+    }
+    if (manifest == null) {
+      return;
+    }
+    final Attributes attributes = manifest.getMainAttributes();
+    root.multiRelease = "true".equalsIgnoreCase(attributes.getValue("Multi-Release"));
+    final String manifestClassPath = attributes.getValue(Attributes.Name.CLASS_PATH);
+    if (manifestClassPath == null) {
+      return;
+    }
+    // the JAR files referenced by the manifest are searched directly after the JAR file itself:
+    final StringTokenizer st = new StringTokenizer(manifestClassPath);
+    while (st.hasMoreTokens()) {
+      final URL url;
+      try {
+        url = new URL(root.url, st.nextToken());
+      } catch (MalformedURLException mue) {
+        continue; // ignored by URLClassLoader, too
+      }
+      if (!addURL(url)) {
+        complete = false;
+      }
+    }
+  }
+
+  private void addJarEntry(String name, Root root) {
+    if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+      addClass(name, root);
+    }
+  }
+
+  private void addDirectory(Root root, File dir, String pkg) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File f : files) {
+      final String name = pkg + f.getName();
+      if (f.isDirectory()) {
+        addDirectory(root, f, name + '/');
+      } else if (name.endsWith(".class")) {
+        addClass(name, root);
+      }
+    }
+  }
+
+  private void addClass(String resourceName, Root root) {
+    if (!classes.containsKey(resourceName)) {
+      classes.put(resourceName, root);
+    }
+  }
+
+}
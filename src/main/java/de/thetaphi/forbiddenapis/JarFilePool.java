@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/** Pool of open {@link JarFile}s owned by a {@link Checker}. Class files in JAR files, which are not read through the
+ * {@link ClasspathIndex}, are read from here instead of using {@link java.net.JarURLConnection}. The JVM-wide cache of
+ * the latter keeps the JAR files open forever, which leaks file handles in long running daemons, and serves outdated
+ * contents, if a JAR file is replaced. All files of the pool are closed by {@link #close()}. This class is thread safe. */
+final class JarFilePool implements Closeable {
+
+  /** Java 9+ constructor to open multi-release JAR files with the version of the runtime, {@code null} before Java 9 */
+  private static final Constructor<JarFile> CONSTRUCTOR_MULTI_RELEASE;
+  private static final Object RUNTIME_VERSION;
+  static {
+    Constructor<JarFile> constructor;
+    Object version;
+    try {
+      final Class<?> versionClass = Class.forName("java.lang.Runtime$Version");
+      constructor = JarFile.class.getConstructor(File.class, boolean.class, int.class, versionClass);
+      version = Runtime.class.getMethod("version").invoke(null);
+    } catch (Exception e) {
+      constructor = null; // not Java 9+
+      version = null;
+    }
+    CONSTRUCTOR_MULTI_RELEASE = constructor;
+    RUNTIME_VERSION = version;
+  }
+
+  /** key is the file as given, so lookups need no file system calls */
+  private final ConcurrentMap<File,JarFile> jars = new ConcurrentHashMap<File,JarFile>();
+  /** key is the canonical file, so each file is opened only once */
+  private final Map<File,JarFile> canonicalJars = new HashMap<File,JarFile>();
+  private volatile boolean closed = false;
+
+  private static JarFile open(File file) throws IOException {
+    if (CONSTRUCTOR_MULTI_RELEASE != null) {
+      try {
+        return CONSTRUCTOR_MULTI_RELEASE.newInstance(file, false, ZipFile.OPEN_READ, RUNTIME_VERSION);
+      } catch (Exception e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        // fall through
+      }
+    }
+    return new JarFile(file, false);
+  }
+
+  private JarFile get(File file) throws IOException {
+    if (closed) {
+      throw new IOException("JAR file pool already closed.");
+    }
+    final JarFile jar = jars.get(file);
+    return (jar != null) ? jar : getCanonical(file);
+  }
+
+  /** Looks up the file by its canonical path, which is only done once for each file as given. */
+  private synchronized JarFile getCanonical(File file) throws IOException {
+    if (closed) {
+      throw new IOException("JAR file pool already closed.");
+    }
+    final File canonical = file.getCanonicalFile();
+    JarFile jar = canonicalJars.get(canonical);
+    if (jar == null) {
+      jar = open(canonical);
+      canonicalJars.put(canonical, jar);
+    }
+    jars.put(file, jar);
+    return jar;
+  }
+
+  /** Reads the given entry of a JAR file; returns {@code null}, if it does not exist. */
+  public byte[] read(File file, String entryName) throws IOException {
+    final JarFile jar = get(file);
+    final JarEntry entry = jar.getJarEntry(entryName);
+    if (entry == null) {
+      return null;
+    }
+    final InputStream in = jar.getInputStream(entry);
+    try {
+      return AsmUtils.readStream(in, entry.getSize());
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Number of open JAR files. */
+  public synchronized int size() {
+    return canonicalJars.size();
+  }
+
+  /** Closes all JAR files. */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    IOException ex = null;
+    for (final JarFile jar : canonicalJars.values()) {
+      try {
+        jar.close();
+      } catch (IOException ioe) {
+        if (ex == null) ex = ioe;
+      }
+    }
+    canonicalJars.clear();
+    jars.clear();
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+}
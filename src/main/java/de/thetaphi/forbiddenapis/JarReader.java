@@ -0,0 +1,420 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/** Reads entries of a JAR (or ZIP) file, which is mapped into memory. The central directory is parsed only once
+ * when opening the file, so each entry is read with a single lookup, into a byte array of its exact size.
+ * STORED entries are copied directly from the mapped file, DEFLATED entries are inflated with {@link Inflater}s
+ * from a shared {@link InflaterPool}. ZIP64 and encrypted files are not supported, {@link #open(File, InflaterPool)}
+ * throws an {@link IOException} for them. This class is thread safe. */
+final class JarReader {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int LOCAL_HEADER_SIG = 0x04034b50, CENTRAL_HEADER_SIG = 0x02014b50, END_SIG = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30, CENTRAL_HEADER_SIZE = 46, END_SIZE = 22;
+  private static final int METHOD_STORED = 0, METHOD_DEFLATED = 8;
+  /** deflate can't compress data by more than this ratio, so larger sizes of entries are invalid */
+  private static final int MAX_DEFLATE_RATIO = 1032;
+
+  /** Unmaps a mapped file without waiting for the garbage collector, {@code null} if not supported by the runtime */
+  private static final Unmapper UNMAPPER = createUnmapper();
+
+  private static interface Unmapper {
+    void unmap(ByteBuffer buffer) throws Exception;
+  }
+
+  @SuppressForbidden
+  private static Unmapper createUnmapper() {
+    try {
+      // Java 9+
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final java.lang.reflect.Method method_Unsafe_invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final java.lang.reflect.Field field_Unsafe_theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      field_Unsafe_theUnsafe.setAccessible(true);
+      final Object unsafe = field_Unsafe_theUnsafe.get(null);
+      return new Unmapper() {
+        @Override
+        public void unmap(ByteBuffer buffer) throws Exception {
+          method_Unsafe_invokeCleaner.invoke(unsafe, buffer);
+        }
+      };
+    } catch (Exception e) {
+      // try legacy runtime
+    }
+    try {
+      final java.lang.reflect.Method method_DirectBuffer_cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      final java.lang.reflect.Method method_Cleaner_clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return new Unmapper() {
+        @Override
+        public void unmap(ByteBuffer buffer) throws Exception {
+          final Object cleaner = method_DirectBuffer_cleaner.invoke(buffer);
+          if (cleaner != null) {
+            method_Cleaner_clean.invoke(cleaner);
+          }
+        }
+      };
+    } catch (Exception e) {
+      return null; // the file is unmapped by the garbage collector
+    }
+  }
+
+  /** Pool of {@link Inflater}s, shared by all JAR files of a classpath. */
+  static final class InflaterPool {
+    private final List<Inflater> pool = new ArrayList<Inflater>();
+
+    synchronized Inflater get() {
+      final int size = pool.size();
+      return (size == 0) ? new Inflater(true) : pool.remove(size - 1);
+    }
+
+    synchronized void release(Inflater inflater) {
+      inflater.reset();
+      pool.add(inflater);
+    }
+
+    /** Releases the native resources of all pooled inflaters. */
+    synchronized void close() {
+      for (final Inflater inflater : pool) {
+        inflater.end();
+      }
+      pool.clear();
+    }
+  }
+
+  private static final class Entry {
+    final int method, compressedSize, size, localHeaderOffset;
+
+    Entry(int method, int compressedSize, int size, int localHeaderOffset) {
+      this.method = method;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  /** path of the file, used in messages */
+  private final String path;
+  private final ByteBuffer data;
+  private final InflaterPool inflaters;
+  /** reader of the enclosing file of a nested JAR file, which stays mapped until this reader is closed */
+  private final JarReader parent;
+  /** key is the name of the entry */
+  private final Map<String,Entry> entries = new HashMap<String,Entry>();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  /** number of running reads, plus one until closed; the file is unmapped when it drops to zero */
+  private final AtomicInteger users = new AtomicInteger(1);
+  /** CRC-32 of the central directory */
+  private long directoryChecksum;
+
+  private JarReader(String path, ByteBuffer data, InflaterPool inflaters, JarReader parent) {
+    this.path = path;
+    this.data = data;
+    this.inflaters = inflaters;
+    this.parent = parent;
+  }
+
+  /** Maps the given file into memory and parses its central directory. */
+  static JarReader open(File file, InflaterPool inflaters) throws IOException {
+    final MappedByteBuffer data;
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("ZIP file too large to be mapped: " + file);
+      }
+      // the mapping stays valid after closing the file:
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0L, length);
+    } finally {
+      raf.close();
+    }
+    data.order(ByteOrder.LITTLE_ENDIAN);
+    final JarReader reader = new JarReader(file.toString(), data, inflaters, null);
+    reader.readCentralDirectory();
+    return reader;
+  }
+
+  private ZipException invalid(String msg) {
+    return new ZipException(msg + ": " + path);
+  }
+
+  private int u16(int pos) {
+    return data.getShort(pos) & 0xFFFF;
+  }
+
+  private int u32(int pos) throws IOException {
+    final int v = data.getInt(pos);
+    if (v < 0) {
+      throw invalid("ZIP64 files are not supported");
+    }
+    return v;
+  }
+
+  private void readCentralDirectory() throws IOException {
+    final int limit = data.limit();
+    int end = -1;
+    for (int pos = limit - END_SIZE, min = Math.max(0, limit - END_SIZE - 0xFFFF); pos >= min; pos--) {
+      if (data.getInt(pos) == END_SIG) {
+        end = pos;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw invalid("No ZIP file");
+    }
+    final int count = u16(end + 10), directorySize = u32(end + 12), directoryOffset = u32(end + 16);
+    if (count == 0xFFFF) {
+      throw invalid("ZIP64 files are not supported");
+    }
+    // data may be prepended to the ZIP file (e.g., self extracting archives), so all offsets are relative:
+    final long base = (long) end - directorySize - directoryOffset;
+    if (base < 0L) {
+      throw invalid("Invalid ZIP central directory");
+    }
+    int pos = (int) base + directoryOffset;
+    final CRC32 crc = new CRC32();
+    final byte[] buffer = new byte[8192];
+    final ByteBuffer directory = view(pos);
+    for (int remaining = Math.min(directorySize, end - pos); remaining > 0; remaining -= buffer.length) {
+      final int n = Math.min(remaining, buffer.length);
+      directory.get(buffer, 0, n);
+      crc.update(buffer, 0, n);
+    }
+    directoryChecksum = crc.getValue();
+    for (int i = 0; i < count; i++) {
+      if (pos + CENTRAL_HEADER_SIZE > end || data.getInt(pos) != CENTRAL_HEADER_SIG) {
+        throw invalid("Invalid ZIP central directory");
+      }
+      final int flags = u16(pos + 8), method = u16(pos + 10);
+      final int compressedSize = u32(pos + 20), size = u32(pos + 24);
+      final int nameLength = u16(pos + 28), extraLength = u16(pos + 30), commentLength = u16(pos + 32);
+      final long localHeaderOffset = base + u32(pos + 42);
+      if (pos + CENTRAL_HEADER_SIZE + nameLength > end || localHeaderOffset > end) {
+        throw invalid("Invalid ZIP central directory");
+      }
+      if ((flags & 1) != 0) {
+        throw invalid("Encrypted ZIP files are not supported");
+      }
+      final String name = readName(pos + CENTRAL_HEADER_SIZE, nameLength);
+      // the size is allocated before reading, so it must match the size of the data in the file:
+      if ((method == METHOD_STORED && size != compressedSize) ||
+          (method == METHOD_DEFLATED && size > (compressedSize + 1L) * MAX_DEFLATE_RATIO)) {
+        throw invalid("Invalid size of ZIP entry '" + name + "'");
+      }
+      // ignore duplicate names:
+      if (!entries.containsKey(name)) {
+        entries.put(name, new Entry(method, compressedSize, size, (int) localHeaderOffset));
+      }
+      pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+  }
+
+  /** Returns a view of the mapped file starting at the given position, so multiple threads can read concurrently. */
+  private ByteBuffer view(int pos) {
+    final ByteBuffer buf = data.duplicate();
+    // cast, because Java 9+ has a covariant override, which is missing in older versions:
+    ((Buffer) buf).position(pos);
+    return buf;
+  }
+
+  private String readName(int pos, int length) {
+    final byte[] bytes = new byte[length];
+    view(pos).get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /** Returns the CRC-32 of the central directory. It contains the CRC-32 of all entries, so it changes with the contents of the file. */
+  public long getDirectoryChecksum() {
+    return directoryChecksum;
+  }
+
+  /** Returns the names of all entries. */
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(entries.keySet());
+  }
+
+  /** Reads the contents of the given entry; returns {@code null}, if it does not exist. */
+  public byte[] read(String name) throws IOException {
+    final Entry e = entries.get(name);
+    if (e == null) {
+      return null;
+    }
+    if (!acquire()) {
+      throw new IOException("JAR file already closed: " + path);
+    }
+    try {
+      return read(name, e);
+    } finally {
+      release();
+    }
+  }
+
+  /** Returns a reader of the given entry, which is a JAR file nested in this one. Its entries are read directly from this
+   * mapped file, so this is only possible for STORED entries; returns {@code null}, if the entry does not exist, is
+   * compressed or no supported ZIP file. This file stays mapped until the nested reader is closed, too. */
+  public JarReader openNested(String name) throws IOException {
+    final Entry e = entries.get(name);
+    if (e == null || e.method != METHOD_STORED) {
+      return null;
+    }
+    if (!acquire()) {
+      throw new IOException("JAR file already closed: " + path);
+    }
+    boolean success = false;
+    try {
+      final ByteBuffer buf = view(getDataStart(name, e));
+      ((Buffer) buf).limit(buf.position() + e.compressedSize);
+      final JarReader nested = new JarReader(path + "!/" + name, buf.slice().order(ByteOrder.LITTLE_ENDIAN), inflaters, this);
+      nested.readCentralDirectory();
+      success = true;
+      return nested;
+    } catch (ZipException ze) {
+      return null; // not supported, the caller reads the entry instead
+    } finally {
+      if (!success) {
+        release();
+      }
+    }
+  }
+
+  /** Returns the position of the data of the given entry, after validating its local header. */
+  private int getDataStart(String name, Entry e) throws IOException {
+    final int header = e.localHeaderOffset;
+    if ((long) header + LOCAL_HEADER_SIZE > data.limit() || data.getInt(header) != LOCAL_HEADER_SIG) {
+      throw invalid("Invalid ZIP local header of entry '" + name + "'");
+    }
+    // the extra field of the local header may differ from the one in the central directory:
+    final long start = (long) header + LOCAL_HEADER_SIZE + u16(header + 26) + u16(header + 28);
+    if (start + e.compressedSize > data.limit()) {
+      throw invalid("Truncated ZIP entry '" + name + "'");
+    }
+    return (int) start;
+  }
+
+  private byte[] read(String name, Entry e) throws IOException {
+    final ByteBuffer buf = view(getDataStart(name, e));
+    switch (e.method) {
+      case METHOD_STORED: {
+        final byte[] bytes = new byte[e.size];
+        buf.get(bytes);
+        return bytes;
+      }
+      case METHOD_DEFLATED: {
+        // Inflater with 'nowrap' needs an extra dummy byte at the end of the input:
+        final byte[] compressed = new byte[e.compressedSize + 1];
+        buf.get(compressed, 0, e.compressedSize);
+        final byte[] bytes = new byte[e.size];
+        final Inflater inflater = inflaters.get();
+        try {
+          inflater.setInput(compressed);
+          int len = 0;
+          while (len < bytes.length) {
+            final int n = inflater.inflate(bytes, len, bytes.length - len);
+            if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+              break;
+            }
+            len += n;
+          }
+          if (len != bytes.length) {
+            throw invalid("Invalid size of ZIP entry '" + name + "'");
+          }
+        } catch (DataFormatException dfe) {
+          throw invalid("Invalid compressed data of ZIP entry '" + name + "'");
+        } finally {
+          inflaters.release(inflater);
+        }
+        return bytes;
+      }
+      default:
+        throw invalid("Unsupported compression method " + e.method + " of ZIP entry '" + name + "'");
+    }
+  }
+
+  /** Registers a read of the mapped file; returns {@code false}, if the reader was already closed. */
+  private boolean acquire() {
+    while (true) {
+      final int count = users.get();
+      if (count == 0) {
+        return false;
+      }
+      if (users.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /** Ends a read of the mapped file (or the reader being open) and unmaps it, if it was the last one. A nested reader
+   * releases the enclosing file instead. */
+  private void release() {
+    if (users.decrementAndGet() == 0) {
+      if (parent != null) {
+        parent.release();
+      } else {
+        unmap(data);
+      }
+    }
+  }
+
+  /** Unmaps the file, so it's no longer locked (on Windows). Reads, which are running in other threads,
+   * are completed before, because accessing the unmapped memory crashes the JVM. Later reads fail. */
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      release();
+    }
+  }
+
+  /** Unmaps the given mapped buffer, if supported by the runtime. The buffer must not be used anymore,
+   * because accessing the unmapped memory crashes the JVM. */
+  static void unmap(ByteBuffer buffer) {
+    if (UNMAPPER != null) {
+      try {
+        UNMAPPER.unmap(buffer);
+      } catch (Exception e) {
+        // the file is unmapped by the garbage collector
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Executes tasks in a thread pool, but returns their results in submission order.
+ * The number of pending tasks is bounded: the caller must {@link #take()} results
+ * as long as {@link #isFull()} returns {@code true}, so results cannot pile up. */
+final class OrderedExecutor<T> implements Closeable {
+
+  private final ExecutorService pool;
+  private final ArrayDeque<Future<T>> pending;
+  private final int maxPending;
+
+  public OrderedExecutor(final String name, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+    }
+    this.pool = Executors.newFixedThreadPool(threads, newThreadFactory(name));
+    this.maxPending = threads * 4;
+    this.pending = new ArrayDeque<Future<T>>(maxPending);
+  }
+
+  /** Returns a factory for daemon threads named {@code forbiddenapis-<name>-<counter>}. */
+  static ThreadFactory newThreadFactory(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "forbiddenapis-" + name + "-" + counter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /** Submits a new task. */
+  public void submit(Callable<T> task) {
+    pending.add(pool.submit(task));
+  }
+
+  /** Returns true, if the caller has to {@link #take()} a result before submitting more tasks. */
+  public boolean isFull() {
+    return pending.size() >= maxPending;
+  }
+
+  /** Returns true, if there are no pending tasks. */
+  public boolean isEmpty() {
+    return pending.isEmpty();
+  }
+
+  /** Waits for the oldest pending task and returns its result. Unchecked exceptions and
+   * {@link IOException}s thrown by the task are rethrown unchanged. */
+  public T take() throws InterruptedException,IOException {
+    try {
+      return pending.remove().get();
+    } catch (ExecutionException ee) {
+      final Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new WrapperRuntimeException((Exception) cause);
+    }
+  }
+
+  /** Cancels all pending tasks and shuts down the thread pool. */
+  @Override
+  public void close() {
+    shutdown(pool);
+    pending.clear();
+  }
+
+  /** Cancels all tasks of the given thread pool and waits until its threads have finished, so the
+   * resources used by the tasks (like mapped files) can be closed afterwards. The calling thread also
+   * waits, if it is interrupted (like on cancellation), the interrupt is restored afterwards. */
+  static void shutdown(ExecutorService pool) {
+    pool.shutdownNow();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (pool.awaitTermination(1L, TimeUnit.MINUTES)) {
+          break;
+        }
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Results of the classes checked by a previous run, stored in a file, so only classes affected by changes are checked
+ * again (see {@link Checker#setIncrementalFile(File)}). For each class, the file contains the SHA-1 hash of its class file,
+ * the messages logged while checking it, and the classes to check it depends on: all classes to check named in its constant
+ * pool, with their superclasses and interfaces. A stored result is only used, if the class file and all classes it depends
+ * on are unchanged. If a related class was missing, the result is also not used when classes to check were added.
+ * <p>
+ * The stored results are ignored completely, if the file was written with another key, which identifies everything else the
+ * results depend on: the signatures, options, the Java runtime and the classpath (see {@link #newDigest()}).
+ * The lookups of stored results are thread safe. */
+final class ResultStore {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int MAGIC = 0x46415252; // "FARR"
+  private static final int FORMAT_VERSION = 1;
+
+  /** The stored result of a class. */
+  private static final class Result {
+    final byte[] hash;
+    /** binary names of the classes to check, the result depends on */
+    final String[] dependencies;
+    final boolean missingClasses;
+    final Checker.BufferedLogger log;
+
+    Result(byte[] hash, String[] dependencies, boolean missingClasses, Checker.BufferedLogger log) {
+      this.hash = hash;
+      this.dependencies = dependencies;
+      this.missingClasses = missingClasses;
+      this.log = log;
+    }
+  }
+
+  private final File file;
+  private final String key;
+  /** results of the previous run, key is the binary name */
+  private final Map<String,Result> stored;
+  /** results of this run, key is the binary name */
+  private final ConcurrentMap<String,Result> results = new ConcurrentHashMap<String,Result>();
+  /** hashes of the current classes to check, key is the binary name */
+  private Map<String,byte[]> hashes = Collections.emptyMap();
+  /** binary names of the classes to check, which were changed, added, or removed since the previous run */
+  private Set<String> changed = Collections.emptySet();
+  private boolean classesAdded = false;
+  private final AtomicInteger reused = new AtomicInteger();
+
+  private ResultStore(File file, String key, Map<String,Result> stored) {
+    this.file = file;
+    this.key = key;
+    this.stored = stored;
+  }
+
+  /** Returns a new SHA-1 digest. */
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new Error("SHA-1 is supported by every Java runtime", nsae);
+    }
+  }
+
+  /** Adds the given values to the digest, each one terminated, so the boundaries of the values are significant. */
+  static void update(MessageDigest md, String... values) {
+    for (final String value : values) {
+      md.update(String.valueOf(value).getBytes(UTF8));
+      md.update((byte) 0);
+    }
+  }
+
+  /** Returns the SHA-1 hash of the given class file. */
+  static byte[] hash(byte[] bytecode) {
+    return newDigest().digest(bytecode);
+  }
+
+  /** Opens the file with the results of the previous run. Its results are only used, if the file was written with the
+   * given key; a missing or corrupt file is ignored, as it is replaced when storing. */
+  static ResultStore open(File file, String key) {
+    Map<String,Result> stored = null;
+    if (file.isFile()) try {
+      final InputStream in = new BufferedInputStream(new FileInputStream(file));
+      try {
+        stored = read(new DataInputStream(in), key);
+      } finally {
+        in.close();
+      }
+    } catch (IOException ioe) {
+      // corrupt file, all classes are checked
+    }
+    return new ResultStore(file, key, (stored == null) ? Collections.<String,Result>emptyMap() : stored);
+  }
+
+  /** Reads a length or count, which can't exceed the remaining bytes of the file. */
+  private static int readLength(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid length: " + length);
+    }
+    return length;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[readLength(in)];
+    in.readFully(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    final byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Reads the results; returns {@code null}, if the file has another key or is invalid. */
+  private static Map<String,Result> read(DataInputStream in, String key) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(readString(in))) {
+      return null;
+    }
+    final int count = readLength(in);
+    final Map<String,Result> results = new HashMap<String,Result>();
+    for (int i = 0; i < count; i++) {
+      final String className = readString(in);
+      final byte[] hash = new byte[in.readUnsignedByte()];
+      in.readFully(hash);
+      final boolean missingClasses = in.readBoolean();
+      final String[] dependencies = new String[readLength(in)];
+      for (int j = 0; j < dependencies.length; j++) {
+        dependencies[j] = readString(in);
+      }
+      final Checker.BufferedLogger log = new Checker.BufferedLogger();
+      log.violations = in.readInt();
+      for (int j = 0, messages = readLength(in); j < messages; j++) {
+        log.add(in.readUnsignedByte(), readString(in));
+      }
+      results.put(className, new Result(hash, dependencies, missingClasses, log));
+    }
+    // the file was completely written:
+    return (in.readInt() == MAGIC) ? results : null;
+  }
+
+  /** Sets the hashes of all classes to check (key is the binary name), so the classes changed since the previous run are
+   * known. Must be called before any result is looked up or added. */
+  void setClasses(Map<String,byte[]> hashes) {
+    final Set<String> changed = new HashSet<String>();
+    boolean classesAdded = false;
+    for (final Map.Entry<String,byte[]> e : hashes.entrySet()) {
+      final Result r = stored.get(e.getKey());
+      if (r == null) {
+        classesAdded = true;
+        changed.add(e.getKey());
+      } else if (!Arrays.equals(r.hash, e.getValue())) {
+        changed.add(e.getKey());
+      }
+    }
+    for (final String className : stored.keySet()) {
+      if (!hashes.containsKey(className)) {
+        changed.add(className);
+      }
+    }
+    this.hashes = hashes;
+    this.changed = changed;
+    this.classesAdded = classesAdded;
+  }
+
+  /** Returns the stored messages of the given class (binary name), if its result is still valid; otherwise returns
+   * {@code null} and the class must be checked again. */
+  Checker.BufferedLogger getStoredResult(String className) {
+    final Result r = stored.get(className);
+    if (r == null || changed.contains(className) || (r.missingClasses && classesAdded)) {
+      return null;
+    }
+    for (final String dependency : r.dependencies) {
+      if (changed.contains(dependency)) {
+        return null;
+      }
+    }
+    results.put(className, r);
+    reused.incrementAndGet();
+    return r.log;
+  }
+
+  /** Adds the result of a checked class (binary name) with the classes to check it depends on (binary names), and if any
+   * related class was missing. */
+  void addResult(String className, Collection<String> dependencies, boolean missingClasses, Checker.BufferedLogger log) {
+    final byte[] hash = hashes.get(className);
+    if (hash == null) {
+      throw new IllegalArgumentException("Unknown class to check: " + className);
+    }
+    results.put(className, new Result(hash, dependencies.toArray(new String[dependencies.size()]), missingClasses, log));
+  }
+
+  /** Writes the results of all classes to check to the file, if any result changed. The results are written in the order of
+   * the classes given to {@link #setClasses(Map)}, all of them must have a result. Returns if the file was written. */
+  boolean store() throws IOException {
+    if (reused.get() == hashes.size() && stored.size() == hashes.size()) {
+      return false; // nothing changed
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    writeString(out, key);
+    out.writeInt(hashes.size());
+    for (final String className : hashes.keySet()) {
+      final Result r = results.get(className);
+      if (r == null) {
+        throw new IllegalStateException("Class was not checked: " + className);
+      }
+      writeString(out, className);
+      out.writeByte(r.hash.length);
+      out.write(r.hash);
+      out.writeBoolean(r.missingClasses);
+      out.writeInt(r.dependencies.length);
+      for (final String dependency : r.dependencies) {
+        writeString(out, dependency);
+      }
+      out.writeInt(r.log.violations);
+      out.writeInt(r.log.size());
+      for (int i = 0, c = r.log.size(); i < c; i++) {
+        out.writeByte(r.log.getLevel(i));
+        writeString(out, r.log.getMessage(i));
+      }
+    }
+    out.writeInt(MAGIC);
+    out.flush();
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create directory of incremental results file: " + dir);
+    }
+    SignatureCacheFile.replaceFile(file, bytes);
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "%d of %d results reused, %d classes checked", reused.get(), hashes.size(), results.size() - reused.get());
+  }
+
+}
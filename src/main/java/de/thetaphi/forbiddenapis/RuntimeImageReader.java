@@ -0,0 +1,126 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Reads class files of the Java 9+ runtime directly from the {@code jrt:/} file system, which is opened only once.
+ * The module of a class is found by its package, so reading a class needs no {@link ClassLoader#getResource(String)}
+ * and no {@code jrt:} {@link java.net.URLConnection}. Only the modules of the boot layer, which are visible to the
+ * given class loader, are read. The NIO file system API is used through reflection, as it is not available in Java 6.
+ * This class is thread safe. */
+final class RuntimeImageReader {
+
+  /** key is the package (internal name), value the module name */
+  private final Map<String,String> packageModules;
+  private final Object fileSystem;
+  private final Method method_FileSystem_getPath, method_Files_readAllBytes;
+  private final Class<?> noSuchFileExceptionClass;
+  private final AtomicLong reads = new AtomicLong();
+
+  private RuntimeImageReader(Map<String,String> packageModules, Object fileSystem, Method method_FileSystem_getPath,
+      Method method_Files_readAllBytes, Class<?> noSuchFileExceptionClass) {
+    this.packageModules = packageModules;
+    this.fileSystem = fileSystem;
+    this.method_FileSystem_getPath = method_FileSystem_getPath;
+    this.method_Files_readAllBytes = method_Files_readAllBytes;
+    this.noSuchFileExceptionClass = noSuchFileExceptionClass;
+  }
+
+  /** Opens the runtime image for the given class loader; returns {@code null}, if not running on Java 9+ or if the
+   * modules of the runtime were patched or upgraded (so their classes may differ from the image). */
+  static RuntimeImageReader open(ClassLoader loader) {
+    if (System.getProperty("jdk.module.patch.0") != null || System.getProperty("jdk.module.upgrade.path") != null) {
+      return null;
+    }
+    final Set<ClassLoader> visibleLoaders = new HashSet<ClassLoader>();
+    for (ClassLoader l = loader; l != null; l = l.getParent()) {
+      visibleLoaders.add(l);
+    }
+    try {
+      final Class<?> layerClass = Class.forName("java.lang.ModuleLayer");
+      final Class<?> moduleClass = Class.forName("java.lang.Module");
+      final Method method_Module_getName = moduleClass.getMethod("getName"),
+          method_Module_getPackages = moduleClass.getMethod("getPackages"),
+          method_Module_getClassLoader = moduleClass.getMethod("getClassLoader");
+      final Map<String,String> packageModules = new HashMap<String,String>();
+      final Object layer = layerClass.getMethod("boot").invoke(null);
+      for (final Object module : (Set<?>) layerClass.getMethod("modules").invoke(layer)) {
+        final ClassLoader moduleLoader = (ClassLoader) method_Module_getClassLoader.invoke(module);
+        if (moduleLoader == null || visibleLoaders.contains(moduleLoader)) {
+          final String name = (String) method_Module_getName.invoke(module);
+          for (final Object pkg : (Set<?>) method_Module_getPackages.invoke(module)) {
+            packageModules.put(((String) pkg).replace('.', '/'), name);
+          }
+        }
+      }
+      final Object fileSystem = Class.forName("java.nio.file.FileSystems").getMethod("getFileSystem", URI.class)
+          .invoke(null, URI.create("jrt:/"));
+      return new RuntimeImageReader(packageModules, fileSystem,
+          Class.forName("java.nio.file.FileSystem").getMethod("getPath", String.class, String[].class),
+          Class.forName("java.nio.file.Files").getMethod("readAllBytes", Class.forName("java.nio.file.Path")),
+          Class.forName("java.nio.file.NoSuchFileException"));
+    } catch (Exception e) {
+      return null; // not Jigsaw Module System
+    }
+  }
+
+  /** Returns the name of the module containing the given class file; returns {@code null}, if its package is in none
+   * of the visible modules. */
+  public String getModule(String resourceName) {
+    final int p = resourceName.lastIndexOf('/');
+    return packageModules.get((p < 0) ? "" : resourceName.substring(0, p));
+  }
+
+  /** Reads the given class file from the given module; returns {@code null}, if the image does not contain it
+   * (e.g., the module was not loaded from the image). */
+  public byte[] read(String module, String resourceName) throws IOException {
+    final byte[] bytecode;
+    try {
+      final Object path = method_FileSystem_getPath.invoke(fileSystem, "/modules/" + module + "/" + resourceName, new String[0]);
+      bytecode = (byte[]) method_Files_readAllBytes.invoke(null, path);
+    } catch (InvocationTargetException ite) {
+      final Throwable cause = ite.getCause();
+      if (noSuchFileExceptionClass.isInstance(cause)) {
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Cannot read '" + resourceName + "' from the runtime image: " + cause);
+    } catch (IllegalAccessException iae) {
+      throw new IOException("Cannot read '" + resourceName + "' from the runtime image: " + iae);
+    }
+    reads.incrementAndGet();
+    return bytecode;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "%d packages of visible modules, %d classes read", packageModules.size(), reads.get());
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Decides if classes come from the runtime library, by the classpath root they were loaded from: a JAR file,
+ * a classpath directory, or a Java 9+ module. Canonicalizing paths needs file system calls (slow on network
+ * file systems), so each root is only canonicalized once and the verdict is cached. This class is thread safe. */
+final class RuntimeOriginCache {
+
+  /** canonical paths of the runtime, all ending with a separator */
+  private final NavigableSet<String> runtimePaths;
+  /** key is the path of a JAR file */
+  private final ConcurrentMap<String,Boolean> jars = new ConcurrentHashMap<String,Boolean>();
+  /** key is the absolute path of a classpath directory, value its canonical path */
+  private final ConcurrentMap<String,String> directories = new ConcurrentHashMap<String,String>();
+  /** key is the module name */
+  private final ConcurrentMap<String,Boolean> modules = new ConcurrentHashMap<String,Boolean>();
+  /** number of lookups by a path, which would need to canonicalize the path without the cache */
+  private final AtomicLong pathLookups = new AtomicLong();
+  private final AtomicLong canonicalizations = new AtomicLong(), moduleLookups = new AtomicLong();
+
+  RuntimeOriginCache(NavigableSet<String> runtimePaths) {
+    this.runtimePaths = runtimePaths;
+  }
+
+  private String canonicalize(File f) throws IOException {
+    canonicalizations.incrementAndGet();
+    return f.getCanonicalPath();
+  }
+
+  private boolean isRuntimePath(String canonicalPath) {
+    final String lookup = runtimePaths.floor(canonicalPath);
+    return lookup != null && canonicalPath.startsWith(lookup);
+  }
+
+  /** Returns if the given JAR file is part of the runtime. */
+  public boolean isRuntimeJar(File jar) throws IOException {
+    pathLookups.incrementAndGet();
+    if (runtimePaths.isEmpty()) {
+      return false;
+    }
+    final String key = jar.getPath();
+    Boolean result = jars.get(key);
+    if (result == null) {
+      result = Boolean.valueOf(isRuntimePath(canonicalize(jar)));
+      jars.put(key, result);
+    }
+    return result.booleanValue();
+  }
+
+  /** Returns if the given class file (resource name in a classpath directory) is part of the runtime. Only the directory
+   * is canonicalized, once for all of its class files. */
+  public boolean isRuntimeFile(File dir, String resourceName) throws IOException {
+    pathLookups.incrementAndGet();
+    if (runtimePaths.isEmpty()) {
+      return false;
+    }
+    final String key = dir.getAbsolutePath();
+    String canonicalDir = directories.get(key);
+    if (canonicalDir == null) {
+      canonicalDir = canonicalize(dir);
+      if (!canonicalDir.endsWith(File.separator)) {
+        canonicalDir += File.separator;
+      }
+      directories.put(key, canonicalDir);
+    }
+    return isRuntimePath(canonicalDir + resourceName.replace('/', File.separatorChar));
+  }
+
+  /** Returns if the given Java 9+ module is part of the runtime. */
+  public boolean isRuntimeModule(String module) {
+    moduleLookups.incrementAndGet();
+    if (module == null) {
+      return false;
+    }
+    Boolean result = modules.get(module);
+    if (result == null) {
+      result = Boolean.valueOf(AsmUtils.isRuntimeModule(module));
+      modules.put(module, result);
+    }
+    return result.booleanValue();
+  }
+
+  @Override
+  public String toString() {
+    final long pathLookups = this.pathLookups.get(), canonicalizations = this.canonicalizations.get();
+    return String.format(Locale.ENGLISH,
+        "%d classes classified by %d JAR files, %d directories and %d modules; %d paths canonicalized, %d canonicalizations avoided",
+        pathLookups + moduleLookups.get(), jars.size(), directories.size(), modules.size(),
+        canonicalizations, pathLookups - canonicalizations);
+  }
+
+}
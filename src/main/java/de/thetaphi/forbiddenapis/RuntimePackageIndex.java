@@ -0,0 +1,126 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** Index of all packages (internal names) of the running Java runtime. It is used to decide, if a class
+ * may be a runtime class, without loading its bytecode. On Java 9+ the packages are taken from the
+ * runtime modules of the boot layer, before from all JAR files and class files below the runtime paths. */
+final class RuntimePackageIndex {
+
+  private final Set<String> packages;
+
+  private RuntimePackageIndex(Set<String> packages) {
+    this.packages = packages;
+  }
+
+  /** Returns {@code false}, if the given class (internal name) is definitely no runtime class,
+   * because its package is not part of the runtime. */
+  public boolean mayBeRuntimeClass(String internalName) {
+    final int p = internalName.lastIndexOf('/');
+    return packages.contains((p < 0) ? "" : internalName.substring(0, p));
+  }
+
+  /** Number of indexed packages. */
+  public int size() {
+    return packages.size();
+  }
+
+  /** Creates the index from the modules of the Java 9+ boot layer; returns {@code null} if not running on Java 9+. */
+  static RuntimePackageIndex fromBootLayer() {
+    final Set<String> packages = getBootLayerPackages(true);
+    return (packages == null) ? null : new RuntimePackageIndex(packages);
+  }
+
+  /** Returns the packages (internal names) of the modules in the Java 9+ boot layer, optionally only of the runtime modules;
+   * returns {@code null} if not running on Java 9+. */
+  static Set<String> getBootLayerPackages(boolean runtimeModulesOnly) {
+    final Set<String> packages = new HashSet<String>();
+    try {
+      final Class<?> layerClass = Class.forName("java.lang.ModuleLayer");
+      final Class<?> moduleClass = Class.forName("java.lang.Module");
+      final java.lang.reflect.Method method_Module_getName = moduleClass.getMethod("getName"),
+          method_Module_getPackages = moduleClass.getMethod("getPackages");
+      final Object layer = layerClass.getMethod("boot").invoke(null);
+      for (final Object module : (Set<?>) layerClass.getMethod("modules").invoke(layer)) {
+        if (!runtimeModulesOnly || AsmUtils.isRuntimeModule((String) method_Module_getName.invoke(module))) {
+          for (final Object pkg : (Set<?>) method_Module_getPackages.invoke(module)) {
+            packages.add(((String) pkg).replace('.', '/'));
+          }
+        }
+      }
+    } catch (Exception e) {
+      return null; // not Jigsaw Module System
+    }
+    return packages;
+  }
+
+  /** Creates the index from all JAR files and class files found below the given runtime paths (legacy runtimes). */
+  static RuntimePackageIndex fromRuntimePaths(Iterable<String> runtimePaths) throws IOException {
+    final Set<String> packages = new HashSet<String>();
+    for (final String path : runtimePaths) {
+      addPackages(packages, new File(path), "");
+    }
+    return new RuntimePackageIndex(packages);
+  }
+
+  private static void addPackages(Set<String> packages, File dir, String pkg) throws IOException {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File f : files) {
+      final String name = f.getName();
+      if (f.isDirectory()) {
+        addPackages(packages, f, pkg.isEmpty() ? name : (pkg + '/' + name));
+      } else if (name.endsWith(".class")) {
+        packages.add(pkg);
+      } else if (name.endsWith(".jar") || name.endsWith(".zip")) {
+        addJarPackages(packages, f);
+      }
+    }
+  }
+
+  private static void addJarPackages(Set<String> packages, File jar) throws IOException {
+    final ZipFile zip;
+    try {
+      zip = new ZipFile(jar);
+    } catch (IOException ioe) {
+      return; // not a valid ZIP file, so no classes can be loaded from it
+    }
+    try {
+      final Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        final String name = entries.nextElement().getName();
+        if (name.endsWith(".class")) {
+          final int p = name.lastIndexOf('/');
+          packages.add((p < 0) ? "" : name.substring(0, p));
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+}
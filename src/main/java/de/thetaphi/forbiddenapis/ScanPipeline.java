@@ -0,0 +1,338 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.objectweb.asm.ClassReader;
+
+/** Streaming check of classes (see {@link Checker.Option#PIPELINED_SCAN}): I/O threads read the
+ * class files, parser threads build the {@link ClassReader}s and register the classes for lookups,
+ * and scanner threads check them for violations. The stages are connected by bounded queues and
+ * the number of classes in flight is limited: a class counts until its result was taken by the
+ * calling thread, so neither the bytecode nor the results of all classes are held in memory at the
+ * same time. The log output of each class is buffered and written in the order of the sources,
+ * like a sequential scan would do.
+ * <p>
+ * A class may refer to another class to check, which was not yet parsed. As long as not all classes
+ * are registered, such lookups throw {@link DeferredLookupException} and the class is deferred. As its
+ * result blocks the output of all later classes, these are then only registered and deferred, too.
+ * Deferred classes are released and read again by the scanner threads after all classes are known. */
+final class ScanPipeline {
+
+  /** Thrown by class lookups, if a class is not found while not all classes to check are registered. */
+  @SuppressWarnings("serial")
+  static final class DeferredLookupException extends RuntimeException {
+    public DeferredLookupException(String clazz) {
+      super(clazz);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      // thrown for control flow only
+      return this;
+    }
+  }
+
+  /** A class file passing the stages. */
+  private static final class Item {
+    final int index;
+    byte[] bytecode;
+    ClassReader reader;
+
+    Item(int index) {
+      this.index = index;
+    }
+  }
+
+  private static final Item END = new Item(-1);
+
+  private final Checker checker;
+  private final List<ClassSource> sources;
+  private final Pattern suppressAnnotationsPattern;
+  private final int ioThreads, parserThreads, scannerThreads;
+
+  private final Semaphore inFlight;
+  private final BlockingQueue<Item> parseQueue, scanQueue;
+  private final AtomicInteger nextSource = new AtomicInteger(), runningReaders, runningParsers, runningScanners;
+  /** index of the first deferred source, all later classes are deferred, too */
+  private volatile int firstDeferred = Integer.MAX_VALUE;
+  /** indexes of the deferred sources, sorted after all classes were registered */
+  private final List<Integer> deferred = new ArrayList<Integer>();
+  private final AtomicInteger nextDeferred = new AtomicInteger();
+  private final CountDownLatch deferredComplete = new CountDownLatch(1);
+  /** per source: {@link Checker.BufferedLogger} or {@link Throwable} */
+  private final Object[] results;
+  /** per source: if the class no longer counts as in flight, before its result is taken */
+  private final boolean[] released;
+
+  ScanPipeline(Checker checker, List<ClassSource> sources, Pattern suppressAnnotationsPattern, int threads) {
+    this.checker = checker;
+    this.sources = sources;
+    this.suppressAnnotationsPattern = suppressAnnotationsPattern;
+    this.ioThreads = Math.max(1, threads / 4);
+    this.parserThreads = Math.max(1, threads / 4);
+    this.scannerThreads = Math.max(1, threads - ioThreads - parserThreads);
+    final int maxInFlight = threads * 4;
+    this.inFlight = new Semaphore(maxInFlight);
+    // the queues never block, if all items in flight plus the end markers fit:
+    this.parseQueue = new ArrayBlockingQueue<Item>(maxInFlight + parserThreads);
+    this.scanQueue = new ArrayBlockingQueue<Item>(maxInFlight + scannerThreads);
+    this.runningReaders = new AtomicInteger(ioThreads);
+    this.runningParsers = new AtomicInteger(parserThreads);
+    this.runningScanners = new AtomicInteger(scannerThreads);
+    this.results = new Object[sources.size()];
+    this.released = new boolean[sources.size()];
+  }
+
+  /** Runs the pipeline and returns the number of violations. */
+  public int run() throws InterruptedException,IOException {
+    final ExecutorService pool = Executors.newFixedThreadPool(ioThreads + parserThreads + scannerThreads,
+        OrderedExecutor.newThreadFactory("pipeline"));
+    try {
+      for (int i = 0; i < ioThreads; i++) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            readClasses();
+          }
+        });
+      }
+      for (int i = 0; i < parserThreads; i++) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            parseClasses();
+          }
+        });
+      }
+      for (int i = 0; i < scannerThreads; i++) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            scanClasses();
+          }
+        });
+      }
+      int errors = 0;
+      for (int i = 0; i < results.length; i++) {
+        final Object result = takeResult(i);
+        if (result instanceof Checker.BufferedLogger) {
+          final Checker.BufferedLogger log = (Checker.BufferedLogger) result;
+          log.replay(checker.logger);
+          errors += log.violations;
+        } else {
+          rethrow((Throwable) result);
+        }
+      }
+      return errors;
+    } finally {
+      OrderedExecutor.shutdown(pool);
+    }
+  }
+
+  private void readClasses() {
+    try {
+      while (true) {
+        inFlight.acquire();
+        final int index = nextSource.getAndIncrement();
+        if (index >= sources.size()) {
+          inFlight.release();
+          break;
+        }
+        final Item item = new Item(index);
+        try {
+          item.bytecode = sources.get(index).read();
+        } catch (Throwable t) {
+          fail(item, t);
+          continue;
+        }
+        parseQueue.put(item);
+      }
+      if (runningReaders.decrementAndGet() == 0) {
+        for (int i = 0; i < parserThreads; i++) {
+          parseQueue.put(END);
+        }
+      }
+    } catch (InterruptedException ie) {
+      // pipeline was cancelled
+    }
+  }
+
+  private void parseClasses() {
+    try {
+      Item item;
+      while ((item = parseQueue.take()) != END) {
+        try {
+          final ClassSignature c = new ClassSignature(checker.parseClass(item.bytecode, sources.get(item.index).toString()), false, true, checker.symbols);
+          item.bytecode = null;
+          item.reader = c.takeReader();
+          if (!checker.registerClassToCheck(c)) {
+            // the same class was given multiple times, only the first one is scanned:
+            setResult(item.index, new Checker.BufferedLogger());
+            continue;
+          }
+        } catch (Throwable t) {
+          fail(item, t);
+          continue;
+        }
+        scanQueue.put(item);
+      }
+      if (runningParsers.decrementAndGet() == 0) {
+        checker.endRegistration();
+        for (int i = 0; i < scannerThreads; i++) {
+          scanQueue.put(END);
+        }
+      }
+    } catch (InterruptedException ie) {
+      // pipeline was cancelled
+    }
+  }
+
+  private void scanClasses() {
+    try {
+      Item item;
+      while ((item = scanQueue.take()) != END) {
+        if (item.index > firstDeferred) {
+          // the result could not be written before the deferred classes are scanned:
+          defer(item);
+          continue;
+        }
+        Object result;
+        try {
+          final Checker.BufferedLogger log = new Checker.BufferedLogger();
+          log.violations = checker.checkClass(item.reader, suppressAnnotationsPattern, log);
+          result = log;
+        } catch (DeferredLookupException dle) {
+          defer(item);
+          continue;
+        } catch (Throwable t) {
+          result = t;
+        }
+        item.reader = null;
+        setResult(item.index, result);
+      }
+      // all classes are registered, wait until all scanners have deferred their last classes:
+      if (runningScanners.decrementAndGet() == 0) {
+        Collections.sort(deferred);
+        deferredComplete.countDown();
+      } else {
+        deferredComplete.await();
+      }
+      scanDeferredClasses();
+    } catch (InterruptedException ie) {
+      // pipeline was cancelled
+    }
+  }
+  
+  /** Releases the class file of the given item, it is read again by {@link #scanDeferredClasses()}. */
+  private void defer(Item item) {
+    item.reader = null;
+    synchronized (deferred) {
+      deferred.add(item.index);
+      if (item.index < firstDeferred) {
+        firstDeferred = item.index;
+      }
+    }
+    inFlight.release();
+  }
+  
+  /** Reads and scans the deferred classes again in the order of the sources, now that all classes are known. */
+  private void scanDeferredClasses() throws InterruptedException {
+    while (true) {
+      // acquire before taking the next index, so the lowest deferred class always gets a permit:
+      inFlight.acquire();
+      final int next = nextDeferred.getAndIncrement();
+      if (next >= deferred.size()) {
+        inFlight.release();
+        break;
+      }
+      final int index = deferred.get(next);
+      Object result;
+      try {
+        final ClassSource source = sources.get(index);
+        final Checker.BufferedLogger log = new Checker.BufferedLogger();
+        log.violations = checker.checkClass(checker.parseClass(source.read(), source.toString()), suppressAnnotationsPattern, log);
+        result = log;
+      } catch (Throwable t) {
+        result = t;
+      }
+      setResult(index, result, false);
+    }
+  }
+
+  private void fail(Item item, Throwable t) {
+    setResult(item.index, t);
+  }
+
+  /** Sets the result of a class, which was not deferred. If an earlier class was deferred, the result may have to wait
+   * until all classes are registered, so it no longer counts as in flight. */
+  private void setResult(int index, Object result) {
+    setResult(index, result, index > firstDeferred);
+  }
+
+  private void setResult(int index, Object result, boolean release) {
+    synchronized (results) {
+      results[index] = result;
+      released[index] = release;
+      results.notifyAll();
+    }
+    if (release) {
+      inFlight.release();
+    }
+  }
+
+  private Object takeResult(int index) throws InterruptedException {
+    synchronized (results) {
+      while (results[index] == null) {
+        results.wait();
+      }
+      final Object result = results[index];
+      results[index] = null;
+      if (!released[index]) {
+        // the class no longer counts as in flight:
+        inFlight.release();
+      }
+      return result;
+    }
+  }
+
+  private static void rethrow(Throwable t) throws IOException {
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    throw new WrapperRuntimeException((Exception) t);
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Persistent cache of class signatures in a directory, shared by concurrent processes (see {@link Checker#setCacheDirectory(File)}).
+ * There is one {@link SignatureCacheFile} for the classes of the Java runtime, keyed by its vendor, version and
+ * {@code java.home}. Each JAR file of the classpath has its own file, keyed by its path, size, modification time
+ * and the checksum of its central directory (which contains the checksums of all entries), so a changed JAR file is
+ * never served from an outdated file. Classes, which were parsed because they were not stored, are added to the files
+ * when the cache is stored. This class is thread safe. */
+final class SignatureCache {
+
+  /** A file of the cache and the classes added since it was opened. */
+  private static final class Store {
+    final File file;
+    final String key;
+    final SignatureCacheFile stored;
+    /** key is the internal class name */
+    final ConcurrentMap<String,ClassSignature> added = new ConcurrentHashMap<String,ClassSignature>();
+
+    Store(File file, String key, SignatureCacheFile stored) {
+      this.file = file;
+      this.key = key;
+      this.stored = stored;
+    }
+  }
+
+  private final File dir;
+  private final SymbolTable symbols;
+  private final Store runtime;
+  /** key is the JAR file of a classpath entry */
+  private final ConcurrentMap<File,Store> jars = new ConcurrentHashMap<File,Store>();
+
+  private SignatureCache(File dir, SymbolTable symbols, Store runtime) {
+    this.dir = dir;
+    this.symbols = symbols;
+    this.runtime = runtime;
+  }
+
+  /** Opens the cache in the given directory, which is created if needed. */
+  static SignatureCache open(File dir, SymbolTable symbols) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create signature cache directory: " + dir);
+    }
+    final String key = getRuntimeKey();
+    return new SignatureCache(dir, symbols, openStore(dir, "runtime", key, key));
+  }
+
+  /** Opens the file named by the given prefix and a hash of the name key. Its contents are only used, if it was written
+   * with the given key, otherwise they are replaced when storing. */
+  private static Store openStore(File dir, String prefix, String nameKey, String key) throws IOException {
+    final File file = new File(dir, SignatureCacheFile.getFileName(prefix, nameKey));
+    return new Store(file, key, SignatureCacheFile.open(file, key));
+  }
+
+  /** Identifies the Java runtime, whose classes are stored. */
+  static String getRuntimeKey() {
+    return "java.vendor=" + System.getProperty("java.vendor") +
+        ";java.version=" + System.getProperty("java.version") +
+        ";java.home=" + System.getProperty("java.home");
+  }
+
+  private Store getJarStore(ClasspathIndex.Root root) throws IOException {
+    Store store = jars.get(root.file);
+    if (store == null) {
+      synchronized (jars) {
+        store = jars.get(root.file);
+        if (store == null) {
+          final String path = root.file.getAbsolutePath();
+          final String key = "path=" + path + ";size=" + root.file.length() +
+              ";mtime=" + root.file.lastModified() + ";crc=" + Long.toHexString(root.reader.getDirectoryChecksum());
+          // a changed JAR file replaces the file of its previous version:
+          store = openStore(dir, "jar-" + sanitize(root.file.getName()), path, key);
+          jars.put(root.file, store);
+        }
+      }
+    }
+    return store;
+  }
+
+  /** Makes the name of a JAR file usable as part of a file name, to make the directory listing readable. */
+  private static String sanitize(String name) {
+    final String s = name.toLowerCase(Locale.ENGLISH).endsWith(".jar") ? name.substring(0, name.length() - 4) : name;
+    return s.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  private ClassSignature get(Store store, String clazz) throws IOException {
+    return (store.stored == null) ? null : store.stored.get(clazz.replace('.', '/'), symbols);
+  }
+
+  /** Returns the stored runtime class (binary name); returns {@code null}, if not stored. */
+  public ClassSignature getRuntimeClass(String clazz) throws IOException {
+    return get(runtime, clazz);
+  }
+
+  /** Returns the stored class (binary name) of the given JAR file entry of the classpath, which must have a
+   * {@link JarReader}; returns {@code null}, if not stored. */
+  public ClassSignature getJarClass(ClasspathIndex.Root root, String clazz) throws IOException {
+    return get(getJarStore(root), clazz);
+  }
+
+  /** Adds a parsed runtime class, so it is stored. */
+  public void addRuntimeClass(ClassSignature c) {
+    runtime.added.put(c.className, c);
+  }
+
+  /** Adds a parsed class of the given JAR file entry of the classpath, so it is stored. */
+  public void addJarClass(ClasspathIndex.Root root, ClassSignature c) throws IOException {
+    getJarStore(root).added.put(c.className, c);
+  }
+
+  /** Writes all files with added classes and closes the stored files. Must not be called while classes are loaded.
+   * Returns the number of written files. */
+  public int store() throws IOException {
+    int written = 0;
+    IOException ex = null;
+    if (store(runtime)) {
+      written++;
+    }
+    for (final Store store : jars.values()) {
+      try {
+        if (store(store)) {
+          written++;
+        }
+      } catch (IOException ioe) {
+        if (ex == null) ex = ioe;
+      }
+    }
+    jars.clear();
+    if (ex != null) {
+      throw ex;
+    }
+    return written;
+  }
+
+  private boolean store(Store store) throws IOException {
+    final Map<String,ClassSignature> classes = new TreeMap<String,ClassSignature>(store.added);
+    try {
+      if (store.stored != null) {
+        if (store.stored.getClassNames().containsAll(classes.keySet())) {
+          return false; // nothing new
+        }
+        for (final String className : store.stored.getClassNames()) {
+          if (!classes.containsKey(className)) {
+            classes.put(className, store.stored.get(className, symbols));
+          }
+        }
+      } else if (classes.isEmpty()) {
+        return false;
+      }
+    } finally {
+      // unmap before replacing the file:
+      if (store.stored != null) {
+        store.stored.close();
+      }
+    }
+    SignatureCacheFile.write(store.file, store.key, classes.values());
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    long read = (runtime.stored == null) ? 0L : runtime.stored.getHits();
+    int added = runtime.added.size();
+    for (final Store store : jars.values()) {
+      read += (store.stored == null) ? 0L : store.stored.getHits();
+      added += store.added.size();
+    }
+    return String.format(Locale.ENGLISH, "%d classes read, %d classes added (runtime and %d JAR files)", read, added, jars.size());
+  }
+
+}
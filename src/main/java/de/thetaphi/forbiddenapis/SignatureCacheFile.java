@@ -0,0 +1,345 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A file of stored {@link ClassSignature}s (class hierarchy and members), which is mapped into memory. The file starts
+ * with a key describing where the classes come from, so outdated files are ignored. It contains a table of all strings
+ * followed by the classes, which refer to strings by number. Only the class names are decoded when opening the file,
+ * a class is decoded on lookup. Files are written to a temporary file, which is renamed afterwards, so concurrent readers
+ * (also in other processes) never see incomplete files. This class is thread safe. */
+final class SignatureCacheFile {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int MAGIC = 0x46415343; // "FASC"
+  private static final int FORMAT_VERSION = 1;
+  private static final int FLAG_RUNTIME_CLASS = 1;
+
+  private final File file;
+  private final ByteBuffer data;
+  private final int[] stringOffsets;
+  /** strings decoded on first use, racy but safe as {@link String}s are immutable */
+  private final String[] strings;
+  /** key is the internal class name, value the offset of the class */
+  private final Map<String,Integer> classes;
+  private final AtomicLong hits = new AtomicLong();
+  private volatile boolean closed = false;
+
+  private SignatureCacheFile(File file, ByteBuffer data, int[] stringOffsets, Map<String,Integer> classes) {
+    this.file = file;
+    this.data = data;
+    this.stringOffsets = stringOffsets;
+    this.strings = new String[stringOffsets.length];
+    this.classes = classes;
+  }
+
+  /** Returns a file name for the given key, which is safe on all file systems. */
+  static String getFileName(String prefix, String key) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF8));
+      final StringBuilder sb = new StringBuilder(prefix).append('-');
+      for (int i = 0; i < 10; i++) {
+        sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+      }
+      return sb.append(".sigs").toString();
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new Error("SHA-1 is always supported by the JVM", nsae);
+    }
+  }
+
+  /** Maps the given file into memory; returns {@code null}, if it does not exist, is invalid or was written for another key. */
+  static SignatureCacheFile open(File file, String key) throws IOException {
+    final ByteBuffer data;
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        final FileChannel channel = raf.getChannel();
+        final long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+          return null;
+        }
+        // the mapping stays valid after closing the file:
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0L, length).order(ByteOrder.BIG_ENDIAN);
+      } finally {
+        raf.close();
+      }
+    } catch (FileNotFoundException fnfe) {
+      return null;
+    }
+    final SignatureCacheFile cache = open(file, key, data);
+    if (cache == null) {
+      JarReader.unmap(data);
+    }
+    return cache;
+  }
+
+  private static SignatureCacheFile open(File file, String key, ByteBuffer data) {
+    try {
+      // the length detects truncated files:
+      if (data.getInt(0) != MAGIC || data.getInt(4) != FORMAT_VERSION || data.getInt(8) != data.capacity() ||
+          !key.equals(readString(data, 12))) {
+        return null;
+      }
+      int pos = 16 + data.getInt(12);
+      final int[] stringOffsets = new int[readLength(data, pos, 4)];
+      pos += 4;
+      for (int i = 0; i < stringOffsets.length; i++, pos += 4) {
+        stringOffsets[i] = data.getInt(pos);
+      }
+      final int classCount = readLength(data, pos, 8);
+      pos += 4;
+      final Map<String,Integer> classes = new HashMap<String,Integer>();
+      for (int i = 0; i < classCount; i++, pos += 8) {
+        classes.put(readString(data, stringOffsets[data.getInt(pos)]), data.getInt(pos + 4));
+      }
+      return new SignatureCacheFile(file, data, stringOffsets, classes);
+    } catch (IndexOutOfBoundsException e) {
+      return null; // truncated file
+    } catch (BufferUnderflowException e) {
+      return null; // truncated file
+    }
+  }
+
+  /** Reads a length or count at the given offset, whose elements of the given size can't exceed the remaining bytes of the
+   * file; invalid lengths throw {@link IndexOutOfBoundsException} like other reads beyond the end of the file. */
+  private static int readLength(ByteBuffer data, int offset, int elementSize) {
+    final int length = data.getInt(offset);
+    if (length < 0 || length > (data.capacity() - offset - 4) / elementSize) {
+      throw new IndexOutOfBoundsException("Invalid length: " + length);
+    }
+    return length;
+  }
+
+  private static String readString(ByteBuffer data, int offset) {
+    final byte[] bytes = new byte[readLength(data, offset, 1)];
+    final ByteBuffer b = data.duplicate();
+    ((Buffer) b).position(offset + 4);
+    b.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private String getString(int index) {
+    if (index < 0) {
+      return null;
+    }
+    String s = strings[index];
+    if (s == null) {
+      strings[index] = s = readString(data, stringOffsets[index]);
+    }
+    return s;
+  }
+
+  private String[] getStrings(int pos, SymbolTable symbols) {
+    final String[] array = new String[readLength(data, pos, 4)];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = symbols.intern(getString(data.getInt(pos + 4 + 4 * i)));
+    }
+    return array;
+  }
+
+  /** Returns the stored class (internal name); returns {@code null}, if it's not stored. All names are interned
+   * using the given symbol table. */
+  public ClassSignature get(String className, SymbolTable symbols) throws IOException {
+    final Integer offset = classes.get(className);
+    if (offset == null) {
+      return null;
+    }
+    if (closed) {
+      throw new IOException("Signature cache file already closed: " + file);
+    }
+    try {
+      int pos = offset.intValue();
+      final boolean isRuntimeClass = (data.get(pos) & FLAG_RUNTIME_CLASS) != 0;
+      final String superName = symbols.intern(getString(data.getInt(pos + 1)));
+      pos += 5;
+      final String[] interfaces = getStrings(pos, symbols);
+      pos += 4 + 4 * interfaces.length;
+      final int methodCount = readLength(data, pos, 8);
+      pos += 4;
+      final String[] methodNames = new String[methodCount], methodDescriptors = new String[methodCount];
+      for (int i = 0; i < methodCount; i++, pos += 8) {
+        methodNames[i] = symbols.intern(getString(data.getInt(pos)));
+        methodDescriptors[i] = symbols.intern(getString(data.getInt(pos + 4)));
+      }
+      final String[] fields = getStrings(pos, symbols);
+      pos += 4 + 4 * fields.length;
+      final String[] signaturePolymorphicMethods = getStrings(pos, symbols);
+      hits.incrementAndGet();
+      return new ClassSignature(symbols.intern(className), superName, interfaces, isRuntimeClass,
+          methodNames, methodDescriptors, fields, signaturePolymorphicMethods);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Signature cache file is corrupt: " + file);
+    }
+  }
+
+  /** Returns the internal names of all stored classes. */
+  public Set<String> getClassNames() {
+    return Collections.unmodifiableSet(classes.keySet());
+  }
+
+  /** Number of classes read from this file. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Unmaps the file. It must not be used by other threads while it's closed. */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    JarReader.unmap(data);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(java.util.Locale.ENGLISH, "%d classes stored in '%s', %d classes read", classes.size(), file, hits.get());
+  }
+
+  /** Table of strings for writing, each string is written only once and referred to by its number. */
+  private static final class StringTable {
+    final Map<String,Integer> numbers = new HashMap<String,Integer>();
+    final List<Integer> offsets = new ArrayList<Integer>();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /** Adds a string to the table (if not already there) and returns its number, {@code -1} for {@code null}. */
+    int add(String s) throws IOException {
+      if (s == null) {
+        return -1;
+      }
+      Integer number = numbers.get(s);
+      if (number == null) {
+        number = offsets.size();
+        numbers.put(s, number);
+        offsets.add(out.size());
+        final byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+      }
+      return number.intValue();
+    }
+
+    void write(DataOutputStream records, String[] array) throws IOException {
+      records.writeInt(array.length);
+      for (final String s : array) {
+        records.writeInt(add(s));
+      }
+    }
+  }
+
+  /** Writes the given classes to the file, replacing it atomically. Their members are parsed, if not yet done. */
+  static void write(File file, String key, Collection<ClassSignature> classes) throws IOException {
+    final StringTable strings = new StringTable();
+    final ByteArrayOutputStream recordsBytes = new ByteArrayOutputStream();
+    final DataOutputStream records = new DataOutputStream(recordsBytes);
+    final int[] classNames = new int[classes.size()], classOffsets = new int[classes.size()];
+    int i = 0;
+    for (final ClassSignature c : classes) {
+      classNames[i] = strings.add(c.className);
+      classOffsets[i] = records.size();
+      records.writeByte(c.isRuntimeClass ? FLAG_RUNTIME_CLASS : 0);
+      records.writeInt(strings.add(c.superName));
+      strings.write(records, c.interfaces);
+      final String[] methodNames = c.getDeclaredMethodNames(), methodDescriptors = c.getDeclaredMethodDescriptors();
+      records.writeInt(methodNames.length);
+      for (int j = 0; j < methodNames.length; j++) {
+        records.writeInt(strings.add(methodNames[j]));
+        records.writeInt(strings.add(methodDescriptors[j]));
+      }
+      strings.write(records, c.getDeclaredFields());
+      strings.write(records, c.getSignaturePolymorphicMethods());
+      i++;
+    }
+    records.flush();
+
+    final byte[] keyBytes = key.getBytes(UTF8);
+    final int stringsStart = 20 + keyBytes.length + 4 * strings.offsets.size() + 4 + 8 * classNames.length;
+    final int recordsStart = stringsStart + strings.bytes.size();
+    final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(stringsStart);
+    final DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeInt(MAGIC);
+    header.writeInt(FORMAT_VERSION);
+    header.writeInt(recordsStart + records.size());
+    header.writeInt(keyBytes.length);
+    header.write(keyBytes);
+    header.writeInt(strings.offsets.size());
+    for (final Integer offset : strings.offsets) {
+      header.writeInt(stringsStart + offset.intValue());
+    }
+    header.writeInt(classNames.length);
+    for (int j = 0; j < classNames.length; j++) {
+      header.writeInt(classNames[j]);
+      header.writeInt(recordsStart + classOffsets[j]);
+    }
+    header.flush();
+
+    replaceFile(file, headerBytes, strings.bytes, recordsBytes);
+  }
+
+  /** Replaces the given file by the concatenated contents. They are written to a temporary file, which is renamed,
+   * so concurrent readers never see partially written files. */
+  static void replaceFile(File file, ByteArrayOutputStream... contents) throws IOException {
+    final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    boolean success = false;
+    try {
+      final OutputStream out = new FileOutputStream(tmp);
+      try {
+        for (final ByteArrayOutputStream content : contents) {
+          content.writeTo(out);
+        }
+      } finally {
+        out.close();
+      }
+      // on Windows, renaming to an existing file fails:
+      success = tmp.renameTo(file) || (file.delete() && tmp.renameTo(file));
+    } finally {
+      if (!success) {
+        tmp.delete();
+      }
+    }
+    if (!success) {
+      throw new IOException("Cannot replace file: " + file);
+    }
+  }
+
+}
@@ -25,12 +25,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 
@@ -78,42 +80,54 @@ public final class Signatures implements Constants {
   private final RelatedClassLookup lookup;
   private final Logger logger;
   private final boolean failOnUnresolvableSignatures;
+  
+  /** canonical instances of all names, shared with the classes to check */
+  final SymbolTable symbols;
 
-  /** Key is used to lookup forbidden signature in following formats:
-   * <ul>
-   * <li>methods: key is the internal name (slashed), followed by \000 and the method signature
-   * <li>fields: key is the internal name (slashed), followed by \000 and the field name
-   * <li>classes: key is the internal name (slashed)
-   * </ul>
-   */
-  final Map<String,String> signatures = new HashMap<String,String>();
+  /** Forbidden classes: key is the internal name (slashed), value is the printout */
+  final Map<String,String> classSignatures = new HashMap<String,String>();
+  
+  /** Forbidden fields: key is the internal name (slashed) of the owner, then the field name */
+  final Map<String,Map<String,String>> fieldSignatures = new HashMap<String,Map<String,String>>();
+  
+  /** Forbidden methods: key is the internal name (slashed) of the owner, then the method name, then the method descriptor.
+   * This allows to probe with the strings given by ASM, without allocating anything. */
+  final Map<String,Map<String,Map<String,String>>> methodSignatures = new HashMap<String,Map<String,Map<String,String>>>();
   
   /** set of patterns of forbidden classes */
   final Set<ClassPatternRule> classPatterns = new LinkedHashSet<ClassPatternRule>();
   
+  /** all patterns of forbidden classes, compiled to match in one pass */
+  private final ClassPatternMatcher classPatternMatcher = new ClassPatternMatcher();
+  
+  /** filters over the names of all forbidden methods and fields, used to skip lookups */
+  private final BloomFilter forbiddenMethodNames = new BloomFilter(16), forbiddenFieldNames = new BloomFilter(16);
+  
   /** if enabled, the bundled signature to enable heuristics for detection of non-portable runtime calls is used */
   private boolean forbidNonPortableRuntime = false;
 
   public Signatures(Checker checker) {
-    this(checker, checker.logger, checker.options.contains(Option.FAIL_ON_UNRESOLVABLE_SIGNATURES));
+    this(checker, checker.logger, checker.options.contains(Option.FAIL_ON_UNRESOLVABLE_SIGNATURES), checker.symbols);
   }
   
   public Signatures(RelatedClassLookup lookup, Logger logger, boolean failOnUnresolvableSignatures) {
+    this(lookup, logger, failOnUnresolvableSignatures, new SymbolTable());
+  }
+  
+  Signatures(RelatedClassLookup lookup, Logger logger, boolean failOnUnresolvableSignatures, SymbolTable symbols) {
     this.lookup = lookup;
     this.logger = logger;
     this.failOnUnresolvableSignatures = failOnUnresolvableSignatures;
+    this.symbols = symbols;
   }
   
-  static String getKey(String internalClassName) {
-    return "c\000" + internalClassName;
-  }
-  
-  static String getKey(String internalClassName, String field) {
-    return "f\000" + internalClassName + '\000' + field;
-  }
-  
-  static String getKey(String internalClassName, Method method) {
-    return "m\000" + internalClassName + '\000' + method;
+  private static <K,V> Map<K,V> getOrCreate(Map<String,Map<K,V>> map, String key) {
+    Map<K,V> values = map.get(key);
+    if (values == null) {
+      values = new HashMap<K,V>();
+      map.put(key, values);
+    }
+    return values;
   }
   
   /** Adds the method signature to the list of disallowed methods. The Signature is checked against the given ClassLoader. */
@@ -167,7 +181,10 @@ public final class Signatures implements Constants {
       if (method != null || field != null) {
         throw new ParseException(String.format(Locale.ENGLISH, "Class level glob pattern cannot be combined with methods/fields: %s", signature));
       }
-      classPatterns.add(new ClassPatternRule(clazz, message));
+      final ClassPatternRule rule = new ClassPatternRule(clazz, message);
+      if (classPatterns.add(rule)) {
+        classPatternMatcher.add(rule);
+      }
     } else {
       final ClassSignature c;
       try {
@@ -184,10 +201,11 @@ public final class Signatures implements Constants {
         assert field == null;
         // list all methods with this signature:
         boolean found = false;
-        for (final Method m : c.methods) {
-          if (m.getName().equals(method.getName()) && Arrays.equals(m.getArgumentTypes(), method.getArgumentTypes())) {
+        for (final String desc : c.getMethodDescriptors(method.getName())) {
+          if (Arrays.equals(Type.getArgumentTypes(desc), method.getArgumentTypes())) {
             found = true;
-            signatures.put(getKey(c.className, m), printout);
+            getOrCreate(getOrCreate(methodSignatures, c.className), symbols.intern(method.getName())).put(desc, printout);
+            forbiddenMethodNames.add(method.getName());
             // don't break when found, as there may be more covariant overrides!
           }
         }
@@ -197,15 +215,16 @@ public final class Signatures implements Constants {
         }
       } else if (field != null) {
         assert method == null;
-        if (!c.fields.contains(field)) {
+        if (!c.hasField(field)) {
           report.parseFailed(logger, "Field not found", signature);
           return;
         }
-        signatures.put(getKey(c.className, field), printout);
+        getOrCreate(fieldSignatures, c.className).put(symbols.intern(field), printout);
+        forbiddenFieldNames.add(field);
       } else {
         assert field == null && method == null;
         // only add the signature as class name
-        signatures.put(getKey(c.className), printout);
+        classSignatures.put(c.className, printout);
       }
     }
   }
@@ -312,7 +331,7 @@ public final class Signatures implements Constants {
   
   /** Returns if there are any signatures. */
   public boolean hasNoSignatures() {
-    return 0 == signatures.size() + 
+    return 0 == classSignatures.size() + fieldSignatures.size() + methodSignatures.size() +
         classPatterns.size() +
         (forbidNonPortableRuntime ? 1 : 0);
   }
@@ -322,29 +341,80 @@ public final class Signatures implements Constants {
     return this.forbidNonPortableRuntime;
   }
   
+  /** Adds all signatures to the given digest, regardless of the order they were parsed in (see {@link ResultStore}). */
+  void updateDigest(MessageDigest md) {
+    for (final Map.Entry<String,String> e : new TreeMap<String,String>(classSignatures).entrySet()) {
+      ResultStore.update(md, "class", e.getKey(), e.getValue());
+    }
+    for (final Map.Entry<String,Map<String,String>> e : new TreeMap<String,Map<String,String>>(fieldSignatures).entrySet()) {
+      for (final Map.Entry<String,String> f : new TreeMap<String,String>(e.getValue()).entrySet()) {
+        ResultStore.update(md, "field", e.getKey(), f.getKey(), f.getValue());
+      }
+    }
+    for (final Map.Entry<String,Map<String,Map<String,String>>> e : new TreeMap<String,Map<String,Map<String,String>>>(methodSignatures).entrySet()) {
+      for (final Map.Entry<String,Map<String,String>> m : new TreeMap<String,Map<String,String>>(e.getValue()).entrySet()) {
+        for (final Map.Entry<String,String> d : new TreeMap<String,String>(m.getValue()).entrySet()) {
+          ResultStore.update(md, "method", e.getKey(), m.getKey(), d.getKey(), d.getValue());
+        }
+      }
+    }
+    // the first matching pattern wins, so their order is significant:
+    for (final ClassPatternRule r : classPatterns) {
+      ResultStore.update(md, "pattern", r.toString());
+    }
+    ResultStore.update(md, "nonPortableRuntime", Boolean.toString(forbidNonPortableRuntime));
+  }
+  
+  /** Returns if the use of a class may be forbidden: by class signatures, patterns, or because non-portable runtime classes are forbidden.
+   * If this returns {@code false}, {@link #checkType(Type)} never reports a violation. */
+  public boolean hasClassRules() {
+    return !classSignatures.isEmpty() || !classPatterns.isEmpty() || forbidNonPortableRuntime;
+  }
+  
+  /** Returns if the given class (internal name) owns forbidden methods or fields. */
+  public boolean isForbiddenMemberOwner(String internalClassName) {
+    return methodSignatures.containsKey(internalClassName) || fieldSignatures.containsKey(internalClassName);
+  }
+  
+  /** Returns {@code false}, if no forbidden method has the given name. */
+  public boolean mayForbidMethod(String name) {
+    return forbiddenMethodNames.mightContain(name);
+  }
+  
+  /** Returns {@code false}, if no forbidden field has the given name. */
+  public boolean mayForbidField(String name) {
+    return forbiddenFieldNames.mightContain(name);
+  }
+  
   public String checkType(Type type) {
     if (type.getSort() != Type.OBJECT) {
       return null; // we don't know this type, just pass!
     }
-    final String printout = signatures.get(getKey(type.getInternalName()));
+    final String printout = classSignatures.get(type.getInternalName());
     if (printout != null) {
       return printout;
     }
-    final String binaryClassName = type.getClassName();
-    for (final ClassPatternRule r : classPatterns) {
-      if (r.matches(binaryClassName)) {
-        return r.getPrintout(binaryClassName);
-      }
-    }
-    return null;
+    final ClassPatternRule r = classPatternMatcher.match(type.getInternalName());
+    return (r == null) ? null : r.getPrintout(type.getClassName());
   }
   
   public String checkMethod(String internalClassName, Method method) {
-    return signatures.get(getKey(internalClassName, method));
+    return checkMethod(internalClassName, method.getName(), method.getDescriptor());
+  }
+  
+  /** Checks a method given by its name and descriptor, as passed to ASM visitors. Does not allocate anything. */
+  public String checkMethod(String internalClassName, String name, String descriptor) {
+    final Map<String,Map<String,String>> methods = methodSignatures.get(internalClassName);
+    if (methods == null) {
+      return null;
+    }
+    final Map<String,String> descriptors = methods.get(name);
+    return (descriptors == null) ? null : descriptors.get(descriptor);
   }
   
   public String checkField(String internalClassName, String field) {
-    return signatures.get(getKey(internalClassName, field));
+    final Map<String,String> fields = fieldSignatures.get(internalClassName);
+    return (fields == null) ? null : fields.get(field);
   }
   
   public static String fixTargetVersion(String name) throws ParseException {
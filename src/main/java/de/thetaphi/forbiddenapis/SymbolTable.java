@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Thread safe table of canonical instances of class names (internal and binary), member names, and
+ * descriptors, shared by all classes of a run. Every {@link org.objectweb.asm.ClassReader} creates new
+ * strings for the same names, so the cached {@link ClassSignature}s would hold many duplicates. With
+ * canonical instances, equal names are mostly the same instance, so {@link String#equals(Object)}
+ * returns early. */
+final class SymbolTable {
+
+  private final ConcurrentMap<String,String> symbols = new ConcurrentHashMap<String,String>();
+  /** key is the internal name, value is the canonical binary name */
+  private final ConcurrentMap<String,String> binaryNames = new ConcurrentHashMap<String,String>();
+
+  /** Returns the canonical instance of the given string, {@code null} stays {@code null}. */
+  public String intern(String s) {
+    if (s == null) {
+      return null;
+    }
+    final String canonical = symbols.get(s);
+    if (canonical != null) {
+      return canonical;
+    }
+    final String prev = symbols.putIfAbsent(s, s);
+    return (prev == null) ? s : prev;
+  }
+
+  /** Replaces all strings in the given array by their canonical instances and returns it. */
+  public String[] intern(String[] array) {
+    if (array != null) {
+      for (int i = 0; i < array.length; i++) {
+        array[i] = intern(array[i]);
+      }
+    }
+    return array;
+  }
+
+  /** Returns the canonical binary name (dotted) of the given internal class name (slashed), no arrays. */
+  public String getBinaryName(String internalName) {
+    String binaryName = binaryNames.get(internalName);
+    if (binaryName == null) {
+      binaryName = intern(internalName.replace('/', '.'));
+      binaryNames.put(intern(internalName), binaryName);
+    }
+    return binaryName;
+  }
+
+  /** Number of canonical instances. */
+  public int size() {
+    return symbols.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(java.util.Locale.ENGLISH, "%d symbols, %d binary names", symbols.size(), binaryNames.size());
+  }
+
+}
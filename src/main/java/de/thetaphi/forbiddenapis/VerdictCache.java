@@ -0,0 +1,208 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Thread safe caches of verdicts (the violation message or {@code null}), which {@link ClassScanner}
+ * computed by walking the class graph. One instance is shared by all scanners of a run, so each
+ * verdict is only computed once. Only verdicts that do not depend on missing classes are cached,
+ * so warnings about them are reported like without the cache. */
+final class VerdictCache {
+
+  /** Verdicts of the class hierarchy (super classes and interfaces), key is the internal class name */
+  final Memo<String> classHierarchies = new Memo<String>("class hierarchy");
+
+  /** Verdicts of the use of a class including its hierarchy, key is the internal class name */
+  final Memo<String> types = new Memo<String>("type");
+
+  /** Verdicts of field, method, and type descriptors, key is the descriptor */
+  final Memo<String> descriptors = new Memo<String>("descriptor");
+
+  /** Verdicts of method invocations in method bodies, including the use of the owner class */
+  final MethodMemo invocations = new MethodMemo("invocation");
+
+  /** Verdicts of methods, resolved through super classes and interfaces, and the use of the owner class is checked */
+  final MethodMemo methods = new MethodMemo("method");
+
+  /** Verdicts of methods, resolved through super classes and interfaces of an interface, whose use is not checked */
+  final MethodMemo interfaceMethods = new MethodMemo("interface method");
+
+  /** Verdicts of field accesses, resolved through interfaces and super classes */
+  final FieldMemo fields = new FieldMemo("field");
+
+  /** Flags of a class hierarchy: it contains a class that owns forbidden members */
+  static final int HIERARCHY_FORBIDDEN_MEMBERS = 1;
+  /** Flags of a class hierarchy: it contains a class whose use may be forbidden */
+  static final int HIERARCHY_FORBIDDEN_CLASS = 2;
+
+  /** Flags of the whole class hierarchy (including the class itself), key is the internal class name */
+  final ConcurrentMap<String,Integer> hierarchyFlags = new ConcurrentHashMap<String,Integer>();
+
+  /** Number of method and field resolutions skipped, because they cannot find a violation */
+  final AtomicLong skippedResolutions = new AtomicLong();
+
+  /** Statistics of a cache of verdicts. */
+  abstract static class AbstractMemo {
+    /** Returned by the lookups if the verdict is cached and there is no violation. */
+    static final String CLEAN = "";
+
+    private final String name;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    AbstractMemo(String name) {
+      this.name = name;
+    }
+
+    /** Counts a lookup and returns the verdict. */
+    final String count(String verdict) {
+      (verdict == null ? misses : hits).incrementAndGet();
+      return verdict;
+    }
+
+    /** Number of cached verdicts. */
+    abstract int size();
+
+    /** Returns the nested map of the given key, which is created if missing. */
+    static <V> ConcurrentMap<String,V> getOrCreate(ConcurrentMap<String,ConcurrentMap<String,V>> map, String key) {
+      ConcurrentMap<String,V> m = map.get(key);
+      if (m == null) {
+        final ConcurrentMap<String,V> created = new ConcurrentHashMap<String,V>();
+        m = map.putIfAbsent(key, created);
+        if (m == null) {
+          m = created;
+        }
+      }
+      return m;
+    }
+
+    /** Number of verdicts that were answered from the cache, so no walk was needed. */
+    public long getHits() {
+      return hits.get();
+    }
+
+    /** Number of verdicts that were not found in the cache. */
+    public long getMisses() {
+      return misses.get();
+    }
+
+    @Override
+    public String toString() {
+      final long hits = getHits(), total = hits + getMisses();
+      return String.format(Locale.ENGLISH, "%s verdicts: %d cached, %d walks saved (%.1f%% hit rate)",
+          name, size(), hits, (total == 0L) ? 0.0 : (100.0 * hits / total));
+    }
+  }
+
+  /** A single cache of verdicts with statistics. */
+  static final class Memo<K> extends AbstractMemo {
+    private final ConcurrentMap<K,String> verdicts = new ConcurrentHashMap<K,String>();
+
+    Memo(String name) {
+      super(name);
+    }
+
+    /** Returns the cached violation, {@link #CLEAN} if the cached verdict is clean,
+     * or {@code null} if the verdict is not cached. */
+    public String get(K key) {
+      return count(verdicts.get(key));
+    }
+
+    /** Caches the given violation, {@code null} means clean. */
+    public void put(K key, String violation) {
+      verdicts.put(key, (violation == null) ? CLEAN : violation);
+    }
+
+    @Override
+    int size() {
+      return verdicts.size();
+    }
+  }
+
+  /** A cache of verdicts of methods with statistics. The verdicts are stored in nested maps (owner, method name,
+   * descriptor) like the method signatures in {@link Signatures}, so they are looked up without allocating a key. */
+  static final class MethodMemo extends AbstractMemo {
+    private final ConcurrentMap<String,ConcurrentMap<String,ConcurrentMap<String,String>>> verdicts =
+        new ConcurrentHashMap<String,ConcurrentMap<String,ConcurrentMap<String,String>>>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    MethodMemo(String name) {
+      super(name);
+    }
+
+    /** Returns the cached violation of the method (owner as internal name, method name and descriptor as given
+     * to ASM visitors), {@link #CLEAN} if the cached verdict is clean, or {@code null} if the verdict is not cached. */
+    public String get(String owner, String name, String desc) {
+      final ConcurrentMap<String,ConcurrentMap<String,String>> methods = verdicts.get(owner);
+      final ConcurrentMap<String,String> descriptors = (methods == null) ? null : methods.get(name);
+      return count((descriptors == null) ? null : descriptors.get(desc));
+    }
+
+    /** Caches the given violation of the method, {@code null} means clean. */
+    public void put(String owner, String name, String desc, String violation) {
+      if (getOrCreate(getOrCreate(verdicts, owner), name).put(desc, (violation == null) ? CLEAN : violation) == null) {
+        size.incrementAndGet();
+      }
+    }
+
+    @Override
+    int size() {
+      return size.get();
+    }
+  }
+
+  /** A cache of verdicts of fields with statistics. The verdicts are stored in nested maps (owner, field name),
+   * so they are looked up without allocating a key. */
+  static final class FieldMemo extends AbstractMemo {
+    private final ConcurrentMap<String,ConcurrentMap<String,String>> verdicts = new ConcurrentHashMap<String,ConcurrentMap<String,String>>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    FieldMemo(String name) {
+      super(name);
+    }
+
+    /** Returns the cached violation of the field (owner as internal name), {@link #CLEAN} if the cached verdict
+     * is clean, or {@code null} if the verdict is not cached. */
+    public String get(String owner, String field) {
+      final ConcurrentMap<String,String> fields = verdicts.get(owner);
+      return count((fields == null) ? null : fields.get(field));
+    }
+
+    /** Caches the given violation of the field, {@code null} means clean. */
+    public void put(String owner, String field, String violation) {
+      if (getOrCreate(verdicts, owner).put(field, (violation == null) ? CLEAN : violation) == null) {
+        size.incrementAndGet();
+      }
+    }
+
+    @Override
+    int size() {
+      return size.get();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH, "%s; %s; %s; %s; %s; %s; %s; %d resolutions skipped using the index of forbidden members",
+        classHierarchies, types, descriptors, invocations, methods, interfaceMethods, fields, skippedResolutions.get());
+  }
+
+}
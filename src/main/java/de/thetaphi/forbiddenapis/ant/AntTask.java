@@ -37,16 +37,19 @@ import org.apache.tools.ant.types.resources.Union;
 
 import de.thetaphi.forbiddenapis.Checker;
 import de.thetaphi.forbiddenapis.Constants;
+import de.thetaphi.forbiddenapis.DebugLogger;
 import de.thetaphi.forbiddenapis.ForbiddenApiException;
-import de.thetaphi.forbiddenapis.Logger;
 import de.thetaphi.forbiddenapis.ParseException;
 
 import java.io.IOException;
 import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -72,10 +75,15 @@ public class AntTask extends Task implements Constants {
   private boolean ignoreEmptyFileset = false;
   private String targetVersion = null;
   private boolean disableClassloadingCache = false;
+  private int threads = 0;
+  private boolean pipelinedScan = false;
+  private boolean streamingScan = false;
+  private File cacheDir = null;
+  private File incrementalFile = null;
     
   @Override
   public void execute() throws BuildException {
-    final Logger log = new Logger() {
+    final DebugLogger log = new DebugLogger() {
       @Override
       public void error(String msg) {
         log(msg, Project.MSG_ERR);
@@ -91,9 +99,15 @@ public class AntTask extends Task implements Constants {
       public void info(String msg) {
         log(msg, Project.MSG_INFO);
       }
+      
+      @Override
+      public void debug(String msg) {
+        log(msg, Project.MSG_VERBOSE);
+      }
     };
     
     AntClassLoader antLoader = null;
+    Checker checker = null;
     try {
       final ClassLoader loader;
       if (classpath != null) {
@@ -111,7 +125,20 @@ public class AntTask extends Task implements Constants {
       if (failOnViolation) options.add(FAIL_ON_VIOLATION);
       if (failOnUnresolvableSignatures) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (disableClassloadingCache) options.add(DISABLE_CLASSLOADING_CACHE);
-      final Checker checker = new Checker(log, loader, options);
+      if (pipelinedScan) options.add(PIPELINED_SCAN);
+      if (streamingScan) options.add(STREAMING_SCAN);
+      checker = new Checker(log, loader, options);
+      try {
+        checker.setThreads(threads);
+      } catch (IllegalArgumentException iae) {
+        throw new BuildException(iae.getMessage(), iae);
+      }
+      if (cacheDir != null) {
+        checker.setCacheDirectory(cacheDir);
+      }
+      if (incrementalFile != null) {
+        checker.setIncrementalFile(incrementalFile);
+      }
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -177,21 +204,30 @@ public class AntTask extends Task implements Constants {
         throw new BuildException("No API signatures found; use signaturesFile=, <signatures*/>, <bundledSignatures/> or inner text to define those!");
       }
 
-      log.info("Loading classes to check...");
       try {
         @SuppressWarnings("unchecked")
         final Iterator<Resource> iter = classFiles.iterator();
-        boolean foundClass = false;
+        // plain files are loaded by the checker in parallel, other resources and archives are read afterwards:
+        final List<File> files = new ArrayList<File>();
+        final List<Resource> otherResources = new ArrayList<Resource>();
+        final List<Resource> archives = new ArrayList<Resource>();
         while (iter.hasNext()) {
           final Resource r = iter.next();
           final String name = r.getName();
+          if (isArchive(name)) {
+            archives.add(r);
+            continue;
+          }
           if (restrictClassFilename && name != null && !name.endsWith(".class")) {
             continue;
           }
-          checker.addClassToCheck(r.getInputStream(), r.getName());
-          foundClass = true;
+          if (r instanceof FileResource) {
+            files.add(((FileResource) r).getFile());
+          } else {
+            otherResources.add(r);
+          }
         }
-        if (!foundClass) {
+        if (files.isEmpty() && otherResources.isEmpty() && archives.isEmpty()) {
           if (ignoreEmptyFileset) {
             log.warn("There is no <fileset/> or other resource collection given, or the collection does not contain any class files to check.");
             log.info("Scanned 0 class files.");
@@ -200,6 +236,22 @@ public class AntTask extends Task implements Constants {
             throw new BuildException("There is no <fileset/> or other resource collection given, or the collection does not contain any class files to check.");
           }
         }
+        checker.addClassesToCheck(files);
+        for (final Resource r : otherResources) {
+          checker.addClassToCheck(r.getInputStream(), r.getName());
+        }
+        for (final Resource r : archives) {
+          if (r instanceof FileResource) {
+            checker.addArchiveToCheck(((FileResource) r).getFile());
+          } else {
+            final InputStream in = r.getInputStream();
+            try {
+              checker.addArchiveToCheck(in, r.toString());
+            } finally {
+              in.close();
+            }
+          }
+        }
       } catch (IOException ioe) {
         throw new BuildException("Failed to load one of the given class files: " + ioe.getMessage(), ioe);
       }
@@ -210,15 +262,39 @@ public class AntTask extends Task implements Constants {
         throw new BuildException(fae.getMessage(), fae.getCause());
       }
     } finally {
+      if (checker != null) try {
+        checker.close();
+      } catch (IOException ioe) {
+        // ignore
+      }
       if (antLoader != null) antLoader.cleanup();
     }
   }
   
-  /** Set of class files to check */
+  /** Set of class files to check. Resources named {@code *.jar}, {@code *.war} or {@code *.ear} are checked as archives,
+   * including the classes of nested JAR files. */
   public void add(ResourceCollection rc) {
     classFiles.add(rc);
   }
   
+  /** Sets a JAR, WAR or EAR file, whose classes are checked, including the classes of nested JAR files (like
+   * {@code WEB-INF/lib/*.jar}). The archive is not added to the classpath.
+   * @since 2.6
+   */
+  public void setArchive(File archive) {
+    final FileResource res = new FileResource(archive);
+    res.setProject(getProject());
+    classFiles.add(res);
+  }
+  
+  private static boolean isArchive(String name) {
+    if (name == null) {
+      return false;
+    }
+    final String lower = name.toLowerCase(Locale.ENGLISH);
+    return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear");
+  }
+  
   /** Sets a directory as base for class files. The implicit pattern '**&#47;*.class' is used to only scan class files. */
   public void setDir(File dir) {
     final FileSet fs = new FileSet();
@@ -390,10 +466,67 @@ public class AntTask extends Task implements Constants {
    * issues with other tasks, that do not close their class loaders.
    * If you get {@code FileNotFoundException}s related to non-existent JAR entries
    * you can try to work around using this setting.
+   * Since version 2.6, this setting is no longer needed: JAR files on the classpath
+   * are not read through the JVM's cache anymore, the checker opens them itself and
+   * closes them after the check. It only affects classpath entries that are no local files.
    * The default is {@code false}.
    * @since 2.2
    */
   public void setDisableClassloadingCache(boolean disableClassloadingCache) {
     this.disableClassloadingCache = disableClassloadingCache;
   }
+
+  /**
+   * Number of threads used to scan the class files for violations.
+   * The default ({@code 0}) uses the number of available processors,
+   * {@code 1} disables parallel scanning.
+   * The order of reported violations does not depend on this setting.
+   * @since 2.6
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Read, parse and scan the class files in a pipeline, instead of loading all of them
+   * into memory before scanning. This keeps memory usage low for huge numbers of classes.
+   * The order of reported violations does not depend on this setting. With a single thread
+   * (see {@link #setThreads(int)}), the class files are read and scanned like without pipelining.
+   * The default is {@code false}.
+   * @since 2.6
+   */
+  public void setPipelinedScan(boolean pipelinedScan) {
+    this.pipelinedScan = pipelinedScan;
+  }
+
+  /**
+   * Do not keep the bytecode of all class files in memory until they are scanned, only their
+   * class hierarchy. Each class file is read a second time, when it is scanned. This keeps
+   * memory usage low for huge numbers of classes, without changing the order of reported violations.
+   * The default is {@code false}.
+   * @since 2.6
+   */
+  public void setStreamingScan(boolean streamingScan) {
+    this.streamingScan = streamingScan;
+  }
+
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes in JAR files
+   * of the classpath between runs, so they are not parsed again. Changed JAR files and other Java
+   * runtimes are detected. The cache may be shared by concurrent builds. By default, no cache is used.
+   * @since 2.6
+   */
+  public void setCacheDir(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * File to store the results of all checked classes, so the next run only checks the classes which changed,
+   * or whose related classes changed. The output is the same as checking all classes. All classes are checked
+   * again, if the signatures, the classpath, or the Java runtime changed. By default, all classes are checked.
+   * @since 2.6
+   */
+  public void setIncrementalFile(File incrementalFile) {
+    this.incrementalFile = incrementalFile;
+  }
 }
@@ -54,7 +54,7 @@ import de.thetaphi.forbiddenapis.StdIoLogger;
 public final class CliMain implements Constants {
 
   private final Option classpathOpt, dirOpt, includesOpt, excludesOpt, signaturesfileOpt, bundledsignaturesOpt, suppressannotationsOpt,
-    internalruntimeforbiddenOpt, allowmissingclassesOpt, allowunresolvablesignaturesOpt, versionOpt, helpOpt;
+    internalruntimeforbiddenOpt, allowmissingclassesOpt, allowunresolvablesignaturesOpt, threadsOpt, pipelinedscanOpt, streamingscanOpt, cachedirOpt, incrementalfileOpt, versionOpt, helpOpt;
   private final CommandLine cmd;
   
   private static final Logger LOG = StdIoLogger.INSTANCE;
@@ -69,10 +69,10 @@ public final class CliMain implements Constants {
     final OptionGroup required = new OptionGroup();
     required.setRequired(true);
     required.addOption(dirOpt = Option.builder("d")
-        .desc("directory with class files to check for forbidden api usage; this directory is also added to classpath")
+        .desc("directory with class files, or JAR/WAR/EAR file (including nested JAR files), to check for forbidden api usage; a directory is also added to classpath")
         .longOpt("dir")
         .hasArg()
-        .argName("directory")
+        .argName("directory or archive")
         .build());
     required.addOption(versionOpt = Option.builder("V")
         .desc("print product version and exit")
@@ -138,6 +138,32 @@ public final class CliMain implements Constants {
         .desc("don't fail if a signature is not resolving")
         .longOpt("allowunresolvablesignatures")
         .build());
+    options.addOption(threadsOpt = Option.builder()
+        .desc("number of threads used to scan classes (defaults to number of available processors; 1 disables parallel scanning)")
+        .longOpt("threads")
+        .hasArg()
+        .argName("count")
+        .build());
+    options.addOption(pipelinedscanOpt = Option.builder()
+        .desc("read, parse and scan class files in a pipeline, so not all class files are held in memory")
+        .longOpt("pipelinedscan")
+        .build());
+    options.addOption(streamingscanOpt = Option.builder()
+        .desc("only keep the class hierarchy of class files in memory and read them again when scanned")
+        .longOpt("streamingscan")
+        .build());
+    options.addOption(cachedirOpt = Option.builder()
+        .desc("directory to persistently cache the signatures of runtime classes and classpath JAR files between runs")
+        .longOpt("cachedir")
+        .hasArg()
+        .argName("directory")
+        .build());
+    options.addOption(incrementalfileOpt = Option.builder()
+        .desc("file to store the results of all checked classes, so the next run only checks changed classes")
+        .longOpt("incrementalfile")
+        .hasArg()
+        .argName("file")
+        .build());
 
     try {
       this.cmd = new DefaultParser().parse(options, args);
@@ -193,20 +219,24 @@ public final class CliMain implements Constants {
   
   public void run() throws ExitException {
     final File classesDirectory = new File(cmd.getOptionValue(dirOpt.getLongOpt())).getAbsoluteFile();
+    // the classes of an archive are not visible to a class loader (e.g., WEB-INF/classes), the checker finds them anyways:
+    final boolean isArchive = classesDirectory.isFile();
     
-    // parse classpath given as argument; add -d to classpath, too
+    // parse classpath given as argument; add -d to classpath, too (if it's a directory)
     final String[] classpath = cmd.getOptionValues(classpathOpt.getLongOpt());
     final URL[] urls;
     try {
       if (classpath == null) {
-        urls = new URL[] { classesDirectory.toURI().toURL() };
+        urls = isArchive ? new URL[0] : new URL[] { classesDirectory.toURI().toURL() };
       } else {
-        urls = new URL[classpath.length + 1];
+        urls = new URL[classpath.length + (isArchive ? 0 : 1)];
         int i = 0;
         for (final String cpElement : classpath) {
           urls[i++] = new File(cpElement).toURI().toURL();
         }
-        urls[i++] = classesDirectory.toURI().toURL();
+        if (!isArchive) {
+          urls[i++] = classesDirectory.toURI().toURL();
+        }
         assert i == urls.length;
       }
     } catch (MalformedURLException mfue) {
@@ -215,11 +245,32 @@ public final class CliMain implements Constants {
     // System.err.println("Classpath: " + Arrays.toString(urls));
 
     final URLClassLoader loader = URLClassLoader.newInstance(urls, ClassLoader.getSystemClassLoader());
+    Checker checker = null;
     try {
       final EnumSet<Checker.Option> options = EnumSet.of(FAIL_ON_VIOLATION);
       if (!cmd.hasOption(allowmissingclassesOpt.getLongOpt())) options.add(FAIL_ON_MISSING_CLASSES);
       if (!cmd.hasOption(allowunresolvablesignaturesOpt.getLongOpt())) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
-      final Checker checker = new Checker(LOG, loader, options);
+      if (cmd.hasOption(pipelinedscanOpt.getLongOpt())) options.add(PIPELINED_SCAN);
+      if (cmd.hasOption(streamingscanOpt.getLongOpt())) options.add(STREAMING_SCAN);
+      checker = new Checker(LOG, loader, options);
+      
+      final String threads = cmd.getOptionValue(threadsOpt.getLongOpt());
+      if (threads != null) try {
+        checker.setThreads(Integer.parseInt(threads));
+      } catch (IllegalArgumentException iae) {
+        throw new ExitException(EXIT_ERR_CMDLINE, String.format(Locale.ENGLISH,
+          "Invalid number of threads given for parameter '--%s': %s", threadsOpt.getLongOpt(), threads));
+      }
+      
+      final String cacheDir = cmd.getOptionValue(cachedirOpt.getLongOpt());
+      if (cacheDir != null) {
+        checker.setCacheDirectory(new File(cacheDir));
+      }
+      
+      final String incrementalFile = cmd.getOptionValue(incrementalfileOpt.getLongOpt());
+      if (incrementalFile != null) {
+        checker.setIncrementalFile(new File(incrementalFile));
+      }
       
       if (!checker.isSupportedJDK) {
         throw new ExitException(EXIT_UNSUPPORTED_JDK, String.format(Locale.ENGLISH, 
@@ -234,25 +285,33 @@ public final class CliMain implements Constants {
       
       LOG.info("Scanning for classes to check...");
       if (!classesDirectory.exists()) {
-        throw new ExitException(EXIT_ERR_OTHER, "Directory with class files does not exist: " + classesDirectory);
+        throw new ExitException(EXIT_ERR_OTHER, "Directory or archive with class files does not exist: " + classesDirectory);
       }
       String[] includes = cmd.getOptionValues(includesOpt.getLongOpt());
-      if (includes == null || includes.length == 0) {
-        includes = new String[] { "**/*.class" };
-      }
       final String[] excludes = cmd.getOptionValues(excludesOpt.getLongOpt());
-      final DirectoryScanner ds = new DirectoryScanner();
-      ds.setBasedir(classesDirectory);
-      ds.setCaseSensitive(true);
-      ds.setIncludes(includes);
-      ds.setExcludes(excludes);
-      ds.addDefaultExcludes();
-      ds.scan();
-      final String[] files = ds.getIncludedFiles();
-      if (files.length == 0) {
-        throw new ExitException(EXIT_ERR_OTHER, String.format(Locale.ENGLISH,
-          "No classes found in directory %s (includes=%s, excludes=%s).",
-          classesDirectory, Arrays.toString(includes), Arrays.toString(excludes)));
+      final String[] files;
+      if (isArchive) {
+        if (includes != null || excludes != null) {
+          LOG.warn("Includes and excludes are ignored for archives, all their classes are checked.");
+        }
+        files = null;
+      } else {
+        if (includes == null || includes.length == 0) {
+          includes = new String[] { "**/*.class" };
+        }
+        final DirectoryScanner ds = new DirectoryScanner();
+        ds.setBasedir(classesDirectory);
+        ds.setCaseSensitive(true);
+        ds.setIncludes(includes);
+        ds.setExcludes(excludes);
+        ds.addDefaultExcludes();
+        ds.scan();
+        files = ds.getIncludedFiles();
+        if (files.length == 0) {
+          throw new ExitException(EXIT_ERR_OTHER, String.format(Locale.ENGLISH,
+            "No classes found in directory %s (includes=%s, excludes=%s).",
+            classesDirectory, Arrays.toString(includes), Arrays.toString(excludes)));
+        }
       }
       
       try {
@@ -284,7 +343,13 @@ public final class CliMain implements Constants {
       }
 
       try {
-        checker.addClassesToCheck(classesDirectory, files);
+        if (isArchive) {
+          if (checker.addArchiveToCheck(classesDirectory) == 0) {
+            throw new ExitException(EXIT_ERR_OTHER, "No classes found in archive " + classesDirectory + ".");
+          }
+        } else {
+          checker.addClassesToCheck(classesDirectory, files);
+        }
       } catch (IOException ioe) {
         throw new ExitException(EXIT_ERR_OTHER, "Failed to load one of the given class files: " + ioe);
       }
@@ -295,6 +360,11 @@ public final class CliMain implements Constants {
         throw new ExitException(EXIT_VIOLATION, fae.getMessage());
       }
     } finally {
+      if (checker != null) try {
+        checker.close();
+      } catch (IOException ioe) {
+        // ignore
+      }
       // Java 7 supports closing URLClassLoader, so check for Closeable interface:
       if (loader instanceof Closeable) try {
         ((Closeable) loader).close();
@@ -54,8 +54,8 @@ import org.gradle.api.tasks.util.PatternSet;
 
 import de.thetaphi.forbiddenapis.Checker;
 import de.thetaphi.forbiddenapis.Constants;
+import de.thetaphi.forbiddenapis.DebugLogger;
 import de.thetaphi.forbiddenapis.ForbiddenApiException;
-import de.thetaphi.forbiddenapis.Logger;
 import de.thetaphi.forbiddenapis.ParseException;
 
 /**
@@ -111,6 +111,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
   private final CheckForbiddenApisExtension data = new CheckForbiddenApisExtension();
   private final PatternSet patternSet = new PatternSet().include("**/*.class");
   private FileCollection classesDirs;
+  private FileCollection archives;
   private FileCollection classpath;
   private String targetCompatibility;
   
@@ -155,6 +156,24 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
     setClassesDirs(getProject().files(classesDir));
   }
 
+  /**
+   * JAR, WAR or EAR files with additional classes to check, including the classes of nested JAR files
+   * (like {@code WEB-INF/lib/*.jar}), so the artifacts don't need to be unpacked. The archives are not
+   * added to the classpath and the include/exclude patterns don't apply to them.
+   * By default, no archives are checked.
+   * @since 2.6
+   */
+  @InputFiles
+  @Optional
+  public FileCollection getArchives() {
+    return archives;
+  }
+
+  /** @see #getArchives */
+  public void setArchives(FileCollection archives) {
+    this.archives = archives;
+  }
+
   /** Returns the pattern set to match against class files in {@link #getClassesDir()}. */
   public PatternSet getPatternSet() {
     return patternSet;
@@ -337,10 +356,12 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
    * issues with other plugin, that do not close their class loaders.
    * If you get {@code FileNotFoundException}s related to non-existent JAR entries
    * you can try to work around using this setting.
+   * Since version 2.6, this setting is no longer needed: JAR files on the classpath
+   * are not read through the JVM's cache anymore, the checker opens them itself and
+   * closes them after the check. It only affects classpath entries that are no local files.
    * <p>
-   * The default is {@code false}, unless the plugin detects that your build is
-   * running in the <em>Gradle Daemon</em> (which has this problem), setting the
-   * default to {@code true} as a consequence.
+   * The default is {@code false}. Before version 2.6, the default was {@code true}, if the
+   * plugin detected that your build is running in the <em>Gradle Daemon</em>.
    * @since 2.2
    */
   @Input
@@ -353,6 +374,91 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
     data.disableClassloadingCache = disableClassloadingCache;
   }
 
+  /**
+   * Number of threads used to scan the class files for violations.
+   * The default ({@code 0}) uses the number of available processors,
+   * {@code 1} disables parallel scanning.
+   * The order of reported violations does not depend on this setting.
+   * @since 2.6
+   */
+  @Input
+  public int getThreads() {
+    return data.threads;
+  }
+
+  /** @see #getThreads */
+  public void setThreads(int threads) {
+    data.threads = threads;
+  }
+
+  /**
+   * Read, parse and scan the class files in a pipeline, instead of loading all of them
+   * into memory before scanning. This keeps memory usage low for huge numbers of classes.
+   * The order of reported violations does not depend on this setting. With a single thread
+   * (see {@link #getThreads()}), the class files are read and scanned like without pipelining.
+   * The default is {@code false}.
+   * @since 2.6
+   */
+  @Input
+  public boolean getPipelinedScan() {
+    return data.pipelinedScan;
+  }
+
+  /** @see #getPipelinedScan */
+  public void setPipelinedScan(boolean pipelinedScan) {
+    data.pipelinedScan = pipelinedScan;
+  }
+
+  /**
+   * Do not keep the bytecode of all class files in memory until they are scanned, only their
+   * class hierarchy. Each class file is read a second time, when it is scanned. This keeps
+   * memory usage low for huge numbers of classes, without changing the order of reported violations.
+   * The default is {@code false}.
+   * @since 2.6
+   */
+  @Input
+  public boolean getStreamingScan() {
+    return data.streamingScan;
+  }
+
+  /** @see #getStreamingScan */
+  public void setStreamingScan(boolean streamingScan) {
+    data.streamingScan = streamingScan;
+  }
+
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes in JAR files
+   * of the classpath between runs, so they are not parsed again. Changed JAR files and other Java
+   * runtimes are detected. The cache may be shared by concurrent builds. By default, no cache is used.
+   * This setting does not affect the result of the task, so it is no input.
+   * @since 2.6
+   */
+  public File getCacheDir() {
+    return data.cacheDir;
+  }
+
+  /** @see #getCacheDir */
+  public void setCacheDir(File cacheDir) {
+    data.cacheDir = cacheDir;
+  }
+
+  /**
+   * Store the results of all checked classes in the temporary directory of the task, so the next run only checks
+   * the classes which changed, or whose related classes changed. The output is the same as checking all classes.
+   * All classes are checked again, if the signatures, the classpath, or the Java runtime changed.
+   * The default is {@code false}.
+   * This setting does not affect the result of the task, so it is no input.
+   * @since 2.6
+   */
+  public boolean getIncremental() {
+    return data.incremental;
+  }
+
+  /** @see #getIncremental */
+  public void setIncremental(boolean incremental) {
+    data.incremental = incremental;
+  }
+
   /**
    * List of a custom Java annotations (full class names) that are used in the checked
    * code to suppress errors. Those annotations must have at least
@@ -477,11 +583,13 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
     return this;
   }
 
-  /** Returns the classes to check. */
+  /** Returns the classes to check, including the archives (see {@link #getArchives()}). */
   @InputFiles
   @SkipWhenEmpty
   public FileTree getClassFiles() {
-    return getClassesDirs().getAsFileTree().matching(getPatternSet());
+    final FileTree classFiles = getClassesDirs().getAsFileTree().matching(getPatternSet());
+    final FileCollection archives = getArchives();
+    return (archives == null) ? classFiles : classFiles.plus(archives.getAsFileTree());
   }
 
   /** Executes the forbidden apis task. */
@@ -493,7 +601,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       throw new InvalidUserDataException("Missing 'classesDirs' or 'classpath' property.");
     }
     
-    final Logger log = new Logger() {
+    final DebugLogger log = new DebugLogger() {
       @Override
       public void error(String msg) {
         getLogger().error(msg);
@@ -508,6 +616,11 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       public void info(String msg) {
         getLogger().info(msg);
       }
+      
+      @Override
+      public void debug(String msg) {
+        getLogger().debug(msg);
+      }
     };
     
     final Set<File> cpElements = new LinkedHashSet<File>();
@@ -529,13 +642,28 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       (urlLoader = URLClassLoader.newInstance(urls, ClassLoader.getSystemClassLoader())) :
       ClassLoader.getSystemClassLoader();
     
+    Checker checker = null;
     try {
       final EnumSet<Checker.Option> options = EnumSet.noneOf(Checker.Option.class);
       if (getFailOnMissingClasses()) options.add(FAIL_ON_MISSING_CLASSES);
       if (!getIgnoreFailures()) options.add(FAIL_ON_VIOLATION);
       if (getFailOnUnresolvableSignatures()) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (getDisableClassloadingCache()) options.add(DISABLE_CLASSLOADING_CACHE);
-      final Checker checker = new Checker(log, loader, options);
+      if (getPipelinedScan()) options.add(PIPELINED_SCAN);
+      if (getStreamingScan()) options.add(STREAMING_SCAN);
+      checker = new Checker(log, loader, options);
+      try {
+        checker.setThreads(getThreads());
+      } catch (IllegalArgumentException iae) {
+        throw new InvalidUserDataException(iae.getMessage(), iae);
+      }
+      final File cacheDir = getCacheDir();
+      if (cacheDir != null) {
+        checker.setCacheDirectory(cacheDir);
+      }
+      if (getIncremental()) {
+        checker.setIncrementalFile(new File(getTemporaryDir(), "results"));
+      }
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -606,13 +734,22 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       }
 
       try {
-        checker.addClassesToCheck(getClassFiles());
+        checker.addClassesToCheck(getClassesDirs().getAsFileTree().matching(getPatternSet()));
+        final FileCollection archives = getArchives();
+        if (archives != null) for (final File archive : archives) {
+          checker.addArchiveToCheck(archive);
+        }
       } catch (IOException ioe) {
         throw new ResourceException("Failed to load one of the given class files.", ioe);
       }
 
       checker.run();
     } finally {
+      if (checker != null) try {
+        checker.close();
+      } catch (IOException ioe) {
+        // ignore
+      }
       // Java 7 supports closing URLClassLoader, so check for Closeable interface:
       if (urlLoader instanceof Closeable) try {
         ((Closeable) urlLoader).close();
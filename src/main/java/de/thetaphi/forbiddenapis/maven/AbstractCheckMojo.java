@@ -32,8 +32,8 @@ import org.codehaus.plexus.util.DirectoryScanner;
 
 import de.thetaphi.forbiddenapis.Checker;
 import de.thetaphi.forbiddenapis.Constants;
+import de.thetaphi.forbiddenapis.DebugLogger;
 import de.thetaphi.forbiddenapis.ForbiddenApiException;
-import de.thetaphi.forbiddenapis.Logger;
 import de.thetaphi.forbiddenapis.ParseException;
 
 import java.io.Closeable;
@@ -161,11 +161,68 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
    * issues with other Mojos, that do not close their class loaders.
    * If you get {@code FileNotFoundException}s related to non-existent JAR entries
    * you can try to work around using this setting.
+   * Since version 2.6, this setting is no longer needed: JAR files on the classpath
+   * are not read through the JVM's cache anymore, the checker opens them itself and
+   * closes them after the check. It only affects classpath entries that are no local files.
    * @since 2.2
    */
   @Parameter(required = false, defaultValue = "false")
   private boolean disableClassloadingCache;
 
+  /**
+   * Number of threads used to scan the class files for violations.
+   * The default ({@code 0}) uses the number of available processors,
+   * {@code 1} disables parallel scanning.
+   * The order of reported violations does not depend on this setting.
+   * @since 2.6
+   */
+  @Parameter(required = false, property="forbiddenapis.threads", defaultValue = "0")
+  private int threads;
+
+  /**
+   * Read, parse and scan the class files in a pipeline, instead of loading all of them
+   * into memory before scanning. This keeps memory usage low for huge numbers of classes.
+   * The order of reported violations does not depend on this setting. With a single thread
+   * (parameter {@code threads}), the class files are read and scanned like without pipelining.
+   * @since 2.6
+   */
+  @Parameter(required = false, property="forbiddenapis.pipelinedScan", defaultValue = "false")
+  private boolean pipelinedScan;
+
+  /**
+   * Do not keep the bytecode of all class files in memory until they are scanned, only their
+   * class hierarchy. Each class file is read a second time, when it is scanned. This keeps
+   * memory usage low for huge numbers of classes, without changing the order of reported violations.
+   * @since 2.6
+   */
+  @Parameter(required = false, property="forbiddenapis.streamingScan", defaultValue = "false")
+  private boolean streamingScan;
+
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes in JAR files
+   * of the classpath between runs, so they are not parsed again. Changed JAR files and other Java
+   * runtimes are detected. The cache may be shared by concurrent builds. By default, no cache is used.
+   * @since 2.6
+   */
+  @Parameter(required = false, property="forbiddenapis.cacheDirectory")
+  private File cacheDirectory;
+
+  /**
+   * Store the results of all checked classes in the build directory, so the next run only checks the classes
+   * which changed, or whose related classes changed. The output is the same as checking all classes. All classes
+   * are checked again, if the signatures, the classpath, or the Java runtime changed.
+   * @since 2.6
+   */
+  @Parameter(required = false, property="forbiddenapis.incremental", defaultValue = "false")
+  private boolean incremental;
+
+  /**
+   * Directory to store the results of incremental checks.
+   * @since 2.6
+   */
+  @Parameter(defaultValue = "${project.build.directory}", readonly = true, required = true)
+  private File buildDirectory;
+
   /**
    * The default compiler target version used to expand references to bundled JDK signatures.
    * E.g., if you use "jdk-deprecated", it will expand to this version.
@@ -193,6 +250,16 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
   @Parameter(required = false)
   private String[] excludes;
 
+  /**
+   * List of JAR, WAR or EAR files with additional classes to check, including the classes of nested JAR files
+   * (like {@code WEB-INF/lib/*.jar}), so artifacts like {@code ${project.build.directory}/${project.build.finalName}.war}
+   * can be checked without unpacking them. The archives are not added to the classpath, and {@link #includes} and
+   * {@link #excludes} don't apply to them.
+   * @since 2.6
+   */
+  @Parameter(required = false)
+  private File[] archives;
+
   /**
    * List of a custom Java annotations (full class names) that are used in the checked
    * code to suppress errors. Those annotations must have at least
@@ -269,7 +336,7 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
 
   @Override
   public void execute() throws MojoExecutionException {
-    final Logger log = new Logger() {
+    final DebugLogger log = new DebugLogger() {
       @Override
       public void error(String msg) {
         getLog().error(msg);
@@ -284,6 +351,11 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
       public void info(String msg) {
         getLog().info(msg);
       }
+      
+      @Override
+      public void debug(String msg) {
+        getLog().debug(msg);
+      }
     };
     
     if (skip) {
@@ -318,13 +390,28 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
       (urlLoader = URLClassLoader.newInstance(urls, ClassLoader.getSystemClassLoader())) :
       ClassLoader.getSystemClassLoader();
     
+    Checker checker = null;
     try {
       final EnumSet<Checker.Option> options = EnumSet.noneOf(Checker.Option.class);
       if (failOnMissingClasses) options.add(FAIL_ON_MISSING_CLASSES);
       if (failOnViolation) options.add(FAIL_ON_VIOLATION);
       if (failOnUnresolvableSignatures) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (disableClassloadingCache) options.add(DISABLE_CLASSLOADING_CACHE);
-      final Checker checker = new Checker(log, loader, options);
+      if (pipelinedScan) options.add(PIPELINED_SCAN);
+      if (streamingScan) options.add(STREAMING_SCAN);
+      checker = new Checker(log, loader, options);
+      try {
+        checker.setThreads(threads);
+      } catch (IllegalArgumentException iae) {
+        throw new MojoExecutionException(iae.getMessage());
+      }
+      if (cacheDirectory != null) {
+        checker.setCacheDirectory(cacheDirectory);
+      }
+      if (incremental) {
+        // one file for each directory of classes, so the check of main and test classes don't replace their results:
+        checker.setIncrementalFile(new File(buildDirectory, "forbiddenapis-" + getClassesDirectory().getName() + ".results"));
+      }
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -346,24 +433,29 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
       
       log.info("Scanning for classes to check...");
       final File classesDirectory = getClassesDirectory();
-      if (!classesDirectory.exists()) {
+      final boolean hasArchives = archives != null && archives.length > 0;
+      final String[] files;
+      if (classesDirectory.exists()) {
+        final DirectoryScanner ds = new DirectoryScanner();
+        ds.setBasedir(classesDirectory);
+        ds.setCaseSensitive(true);
+        ds.setIncludes(includes);
+        ds.setExcludes(excludes);
+        ds.addDefaultExcludes();
+        ds.scan();
+        files = ds.getIncludedFiles();
+        if (files.length == 0 && !hasArchives) {
+          log.warn(String.format(Locale.ENGLISH,
+            "No classes found in '%s' (includes=%s, excludes=%s), forbiddenapis check skipped.",
+            classesDirectory.toString(), Arrays.toString(includes), Arrays.toString(excludes)));
+          return;
+        }
+      } else if (hasArchives) {
+        files = new String[0];
+      } else {
         log.warn("Classes directory does not exist, forbiddenapis check skipped: " + classesDirectory);
         return;
       }
-      final DirectoryScanner ds = new DirectoryScanner();
-      ds.setBasedir(classesDirectory);
-      ds.setCaseSensitive(true);
-      ds.setIncludes(includes);
-      ds.setExcludes(excludes);
-      ds.addDefaultExcludes();
-      ds.scan();
-      final String[] files = ds.getIncludedFiles();
-      if (files.length == 0) {
-        log.warn(String.format(Locale.ENGLISH,
-          "No classes found in '%s' (includes=%s, excludes=%s), forbiddenapis check skipped.",
-          classesDirectory.toString(), Arrays.toString(includes), Arrays.toString(excludes)));
-        return;
-      }
       
       try {
         if (bundledSignatures != null) {
@@ -436,6 +528,11 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
 
       try {
         checker.addClassesToCheck(classesDirectory, files);
+        if (hasArchives) {
+          for (final File archive : archives) {
+            checker.addArchiveToCheck(archive);
+          }
+        }
       } catch (IOException ioe) {
         throw new MojoExecutionException("Failed to load one of the given class files.", ioe);
       }
@@ -446,6 +543,11 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
         throw new MojoExecutionException(fae.getMessage(), fae.getCause());
       }
     } finally {
+      if (checker != null) try {
+        checker.close();
+      } catch (IOException ioe) {
+        // ignore
+      }
       // Java 7 supports closing URLClassLoader, so check for Closeable interface:
       if (urlLoader instanceof Closeable) try {
         ((Closeable) urlLoader).close();
@@ -84,6 +84,12 @@ public final class AsmUtilsTest {
     assertTrue(isPortableRuntimeClass(ArrayList.class.getName()));
     assertTrue(isPortableRuntimeClass("org.w3c.dom.Document"));
     assertFalse(isPortableRuntimeClass(getClass().getName()));
+    // internal names:
+    assertFalse(isPortableRuntimeClass("sun/misc/Unsafe"));
+    assertTrue(isPortableRuntimeClass("java/lang/Object"));
+    assertTrue(isPortableRuntimeClass("org/w3c/dom/Document"));
+    assertFalse(isPortableRuntimeClass("javaxyz/Foo"));
+    assertFalse(isPortableRuntimeClass("java"));
   }
   
   @Test
@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public final class BloomFilterTest {
+
+  @Test
+  public void testNoFalseNegatives() {
+    final BloomFilter filter = new BloomFilter(16);
+    for (int i = 0; i < 1000; i++) {
+      filter.add("method" + i);
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.mightContain("method" + i));
+      if (filter.mightContain("field" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("Too many false positives: " + falsePositives, falsePositives < 50);
+  }
+
+  @Test
+  public void testEmpty() {
+    final BloomFilter filter = new BloomFilter(6);
+    assertFalse(filter.mightContain("toString"));
+    assertFalse(filter.mightContain(""));
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CheckerArchiveTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private static byte[] getClassFile(Class<?> clazz) throws IOException {
+    final InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+    try {
+      return AsmUtils.readStream(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void addEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(data);
+    zip.closeEntry();
+  }
+
+  private static void addStoredEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+    final ZipEntry entry = new ZipEntry(name);
+    final CRC32 crc = new CRC32();
+    crc.update(data);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(data.length);
+    entry.setCompressedSize(data.length);
+    entry.setCrc(crc.getValue());
+    zip.putNextEntry(entry);
+    zip.write(data);
+    zip.closeEntry();
+  }
+
+  /** Writes a JAR file with the given class and one in {@code META-INF}, which is ignored. */
+  private static byte[] writeJar(Class<?> clazz) throws IOException {
+    final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+    final ZipOutputStream zip = new ZipOutputStream(jar);
+    try {
+      addEntry(zip, "META-INF/versions/9/de/thetaphi/forbiddenapis/Checker.class", getClassFile(Checker.class));
+      addEntry(zip, clazz.getName().replace('.', '/') + ".class", getClassFile(clazz));
+    } finally {
+      zip.close();
+    }
+    return jar.toByteArray();
+  }
+
+  /** Writes a WAR file with one class in {@code WEB-INF/classes} and one in each of a compressed and an uncompressed
+   * nested JAR file. */
+  private File writeWar() throws IOException {
+    final File war = tmp.newFile("test.war");
+    final OutputStream out = new FileOutputStream(war);
+    final ZipOutputStream zip = new ZipOutputStream(out);
+    try {
+      addEntry(zip, "index.html", new byte[0]);
+      addEntry(zip, "WEB-INF/classes/de/thetaphi/forbiddenapis/Checker.class", getClassFile(Checker.class));
+      addEntry(zip, "WEB-INF/lib/lib.jar", writeJar(ClassSource.class));
+      addStoredEntry(zip, "WEB-INF/lib/stored.jar", writeJar(JarReader.class));
+    } finally {
+      zip.close();
+    }
+    return war;
+  }
+
+  private void assertArchiveClasses(int threads, Checker.Option... options) throws Exception {
+    final File war = writeWar();
+    final Checker checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), options);
+    try {
+      checker.setThreads(threads);
+      assertEquals(3, checker.addArchiveToCheck(war));
+      checker.parseSignaturesString("java.lang.String#intern()");
+      checker.run();
+      assertEquals(Arrays.asList(Checker.class.getName(), ClassSource.class.getName(), JarReader.class.getName()),
+          new ArrayList<String>(checker.classesToCheck.keySet()));
+    } finally {
+      checker.close();
+      war.delete();
+    }
+  }
+
+  @Test
+  public void testArchive() throws Exception {
+    assertArchiveClasses(1, Checker.Option.FAIL_ON_VIOLATION);
+    assertArchiveClasses(4, Checker.Option.FAIL_ON_VIOLATION);
+    assertArchiveClasses(4, Checker.Option.FAIL_ON_VIOLATION, Checker.Option.STREAMING_SCAN);
+    assertArchiveClasses(4, Checker.Option.FAIL_ON_VIOLATION, Checker.Option.PIPELINED_SCAN);
+    assertArchiveClasses(4, Checker.Option.FAIL_ON_VIOLATION, Checker.Option.PIPELINED_SCAN, Checker.Option.STREAMING_SCAN);
+  }
+
+  @Test
+  public void testNestedEar() throws Exception {
+    final File war = writeWar(), zip = tmp.newFile("test.zip");
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+    try {
+      addEntry(out, "app.ear", AsmUtils.readFile(war));
+    } finally {
+      out.close();
+    }
+    final Checker checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader());
+    try {
+      assertEquals(3, checker.addArchiveToCheck(zip));
+    } finally {
+      checker.close();
+    }
+  }
+
+}
@@ -43,7 +43,9 @@ public final class CheckerSetupTest {
 
   @Test
   public void testEmpty() {
-    assertEquals(Collections.emptyMap(), forbiddenSignatures.signatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.classSignatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.fieldSignatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.methodSignatures);
     assertEquals(Collections.emptySet(), forbiddenSignatures.classPatterns);
     assertTrue(checker.hasNoSignatures());
   }
@@ -51,14 +53,16 @@ public final class CheckerSetupTest {
   @Test
   public void testClassSignature() throws Exception {
     checker.parseSignaturesString("java.lang.Object @ Foobar");
-    assertEquals(Collections.singletonMap(Signatures.getKey("java/lang/Object"), "java.lang.Object [Foobar]"), forbiddenSignatures.signatures);
+    assertEquals(Collections.singletonMap("java/lang/Object", "java.lang.Object [Foobar]"), forbiddenSignatures.classSignatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.fieldSignatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.methodSignatures);
     assertEquals(Collections.emptySet(), forbiddenSignatures.classPatterns);
   }
   
   @Test
   public void testClassPatternSignature() throws Exception {
     checker.parseSignaturesString("java.lang.** @ Foobar");
-    assertEquals(Collections.emptyMap(), forbiddenSignatures.signatures);
+    assertEquals(Collections.emptyMap(), forbiddenSignatures.classSignatures);
     assertEquals(Collections.singleton(new ClassPatternRule("java.lang.**", "Foobar")),
         forbiddenSignatures.classPatterns);
   }
@@ -66,16 +70,20 @@ public final class CheckerSetupTest {
   @Test
   public void testFieldSignature() throws Exception {
     checker.parseSignaturesString("java.lang.String#CASE_INSENSITIVE_ORDER @ Foobar");
-    assertEquals(Collections.singletonMap(Signatures.getKey("java/lang/String", "CASE_INSENSITIVE_ORDER"), "java.lang.String#CASE_INSENSITIVE_ORDER [Foobar]"),
-        forbiddenSignatures.signatures);
+    assertEquals(Collections.singletonMap("java/lang/String", Collections.singletonMap("CASE_INSENSITIVE_ORDER", "java.lang.String#CASE_INSENSITIVE_ORDER [Foobar]")),
+        forbiddenSignatures.fieldSignatures);
+    assertEquals("java.lang.String#CASE_INSENSITIVE_ORDER [Foobar]", forbiddenSignatures.checkField("java/lang/String", "CASE_INSENSITIVE_ORDER"));
+    assertNull(forbiddenSignatures.checkField("java/lang/String", "serialVersionUID"));
     assertEquals(Collections.emptySet(), forbiddenSignatures.classPatterns);
   }
 
   @Test
   public void testMethodSignature() throws Exception {
     checker.parseSignaturesString("java.lang.Object#toString() @ Foobar");
-    assertEquals(Collections.singletonMap(Signatures.getKey("java/lang/Object", new Method("toString", "()Ljava/lang/String;")), "java.lang.Object#toString() [Foobar]"),
-        forbiddenSignatures.signatures);
+    assertEquals(Collections.singletonMap("java/lang/Object", Collections.singletonMap("toString", Collections.singletonMap("()Ljava/lang/String;", "java.lang.Object#toString() [Foobar]"))),
+        forbiddenSignatures.methodSignatures);
+    assertEquals("java.lang.Object#toString() [Foobar]", forbiddenSignatures.checkMethod("java/lang/Object", new Method("toString", "()Ljava/lang/String;")));
+    assertNull(forbiddenSignatures.checkMethod("java/lang/Object", "hashCode", "()I"));
     assertEquals(Collections.emptySet(), forbiddenSignatures.classPatterns);
   }
   
@@ -85,20 +93,41 @@ public final class CheckerSetupTest {
     assertEquals(EnumSet.noneOf(Checker.Option.class), chk.options);
   }
   
+  @Test
+  public void testThreads() throws Exception {
+    assertEquals(Runtime.getRuntime().availableProcessors(), checker.getThreads());
+    checker.setThreads(1);
+    assertEquals(1, checker.getThreads());
+    checker.setThreads(0);
+    assertEquals(Runtime.getRuntime().availableProcessors(), checker.getThreads());
+    try {
+      checker.setThreads(-1);
+      fail("Negative number of threads should fail");
+    } catch (IllegalArgumentException iae) {
+      // pass
+    }
+  }
+  
   @Test
   public void testRuntimeClassSignatures() throws Exception {
     ClassSignature cs = checker.lookupRelatedClass("java/lang/String");
     assertTrue(cs.isRuntimeClass);
-    assertTrue(cs.signaturePolymorphicMethods.isEmpty());
+    assertFalse(cs.isSignaturePolymorphicMethod("length"));
+    assertTrue(cs.hasMethod("length", "()I"));
+    assertTrue(cs.hasMethod("<init>", "()V"));
+    assertFalse(cs.hasMethod("length", "()J"));
+    assertFalse(cs.hasMethod("foobar", "()V"));
+    assertTrue(cs.hasField("CASE_INSENSITIVE_ORDER"));
+    assertFalse(cs.hasField("foobar"));
+    assertEquals(Collections.singletonList("()I"), cs.getMethodDescriptors("length"));
   }
   
   @Test
   public void testSignaturePolymorphic() throws Exception {
     try {
       ClassSignature cs = checker.lookupRelatedClass("java/lang/invoke/MethodHandle");
-      assertTrue(cs.signaturePolymorphicMethods.contains("invoke"));
-      assertTrue(cs.signaturePolymorphicMethods.contains("invokeExact"));
-      // System.out.println(cs.signaturePolymorphicMethods);
+      assertTrue(cs.isSignaturePolymorphicMethod("invoke"));
+      assertTrue(cs.isSignaturePolymorphicMethod("invokeExact"));
     } catch (WrapperRuntimeException we) {
       assertTrue(we.getCause() instanceof ClassNotFoundException);
       assumeNoException("This test only works with Java 7+", we);
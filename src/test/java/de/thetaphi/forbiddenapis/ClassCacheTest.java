@@ -0,0 +1,136 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public final class ClassCacheTest {
+
+  private final ClassSignature objectClass = new ClassSignature(Object.class, true, new SymbolTable());
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    final ClassCache cache = new ClassCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch loading = new CountDownLatch(1), release = new CountDownLatch(1);
+    final ClassCache.Loader loader = new ClassCache.Loader() {
+      @Override
+      public ClassSignature load(String clazz) throws IOException {
+        loads.incrementAndGet();
+        loading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new AssertionError(ie);
+        }
+        return objectClass;
+      }
+    };
+    final AtomicReference<ClassSignature> result = new AtomicReference<ClassSignature>();
+    final Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(cache.get("java.lang.Object", loader));
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    t.start();
+    loading.await();
+    final Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          assertSame(objectClass, cache.get("java.lang.Object", loader));
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    waiter.start();
+    while (cache.getWaits() == 0L) {
+      Thread.sleep(1L);
+    }
+    release.countDown();
+    t.join();
+    waiter.join();
+    assertSame(objectClass, result.get());
+    assertSame(objectClass, cache.get("java.lang.Object", loader));
+    assertEquals(1, loads.get());
+    assertEquals(1L, cache.getMisses());
+    assertEquals(1L, cache.getWaits());
+    assertEquals(1L, cache.getHits());
+  }
+
+  @Test
+  public void testNegativeCaching() throws Exception {
+    final ClassCache cache = new ClassCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final ClassCache.Loader loader = new ClassCache.Loader() {
+      @Override
+      public ClassSignature load(String clazz) throws IOException {
+        loads.incrementAndGet();
+        return null;
+      }
+    };
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.get("foo.Bar", loader);
+        fail("Class should not be found");
+      } catch (ClassNotFoundException cnfe) {
+        assertEquals("foo.Bar", cnfe.getMessage());
+      }
+    }
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testFailuresNotCached() throws Exception {
+    final ClassCache cache = new ClassCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final ClassCache.Loader loader = new ClassCache.Loader() {
+      @Override
+      public ClassSignature load(String clazz) throws IOException {
+        if (loads.incrementAndGet() == 1) {
+          throw new IOException("simulated");
+        }
+        return objectClass;
+      }
+    };
+    try {
+      cache.get("java.lang.Object", loader);
+      fail("IOException expected");
+    } catch (IOException ioe) {
+      assertEquals("simulated", ioe.getMessage());
+    }
+    assertSame(objectClass, cache.get("java.lang.Object", loader));
+    assertEquals(2, loads.get());
+  }
+
+}
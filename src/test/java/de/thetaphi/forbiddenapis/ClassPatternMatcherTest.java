@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public final class ClassPatternMatcherTest {
+
+  static final String[] GLOBS = {
+    "a.b.c.*", "a.b.c.**", "sun.*.*", "java.**.Array?", "sun.misc.Unsafe$*", "sun.**", "*.Foo", "**Bar", "x.?",
+    "java.{**}.Array", "java./**<>.Array$1", "a.b.*.*.c**", "a.b.c.***", "***"
+  };
+
+  static final String[] CLASSES = {
+    "a.b.c", "a.b.c.d", "a.b.c.def", "a.b.c.d.e", "a.b.c.d.e.f", "a.b.x.y.cz", "a.b.x.c", "sun.misc.Unsafe", "sun.misc.Unsafe$1",
+    "sun.misc.Unsafe.xy", "java.util.Arrays", "java.util.ArrayList", "java.util.Array", "java.lang.reflect.Arrays",
+    "Foo", "x.Foo", "x.y.Foo", "Bar", "x.y.FooBar", "x.y", "x.yz", "java.{util}.Array", "sun"
+  };
+
+  private static String internal(String className) {
+    return className.replace('.', '/');
+  }
+
+  @Test
+  public void testSameAsRegex() {
+    for (final String glob : GLOBS) {
+      final ClassPatternRule rule = new ClassPatternRule(glob, null);
+      final ClassPatternMatcher matcher = new ClassPatternMatcher();
+      matcher.add(rule);
+      for (final String clazz : CLASSES) {
+        assertEquals(glob + " on " + clazz, rule.matches(clazz), matcher.match(internal(clazz)) != null);
+      }
+    }
+  }
+
+  @Test
+  public void testFirstMatchWins() {
+    final ClassPatternMatcher matcher = new ClassPatternMatcher();
+    for (final String glob : GLOBS) {
+      matcher.add(new ClassPatternRule(glob, "rule " + glob));
+    }
+    for (final String clazz : CLASSES) {
+      String expected = null;
+      for (final String glob : GLOBS) {
+        final ClassPatternRule rule = new ClassPatternRule(glob, "rule " + glob);
+        if (rule.matches(clazz)) {
+          expected = rule.getPrintout(clazz);
+          break;
+        }
+      }
+      final ClassPatternRule r = matcher.match(internal(clazz));
+      assertEquals(clazz, expected, (r == null) ? null : r.getPrintout(clazz));
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    assertNull(new ClassPatternMatcher().match("java/lang/Object"));
+  }
+
+}
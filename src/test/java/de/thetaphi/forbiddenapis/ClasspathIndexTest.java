@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ClasspathIndexTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private static void writeJar(File jar, String classPath, String... names) throws IOException {
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    if (classPath != null) {
+      manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+    }
+    final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+    try {
+      for (final String name : names) {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void assertSameResource(ClassLoader loader, ClasspathIndex index, String name) throws IOException {
+    final URL expected = loader.getResource(name), actual = index.getResource(name);
+    assertEquals(name, (expected == null) ? null : expected.toExternalForm(), (actual == null) ? null : actual.toExternalForm());
+  }
+
+  @Test
+  public void testSameResourcesAsClassLoader() throws Exception {
+    final File root = tmp.getRoot().getCanonicalFile();
+    final File dir = new File(root, "classes");
+    assertTrue(new File(dir, "a").mkdirs());
+    assertTrue(new File(dir, "a/Foo.class").createNewFile());
+    final File jar = new File(root, "lib.jar"), referenced = new File(root, "referenced.jar");
+    writeJar(jar, referenced.getName(), "a/Foo.class", "b/Bar.class", "b/Bar$Inner.class");
+    writeJar(referenced, null, "b/Bar.class", "c/Baz.class");
+
+    final URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL(), jar.toURI().toURL() }, ClassLoader.getSystemClassLoader());
+    try {
+      final ClasspathIndex index = ClasspathIndex.create(loader);
+      assumeNotNull(index); // runtime with unknown classpath
+      assertSameResource(loader, index, "a/Foo.class");
+      assertSameResource(loader, index, "b/Bar.class");
+      assertSameResource(loader, index, "b/Bar$Inner.class");
+      assertSameResource(loader, index, "c/Baz.class");
+      assertSameResource(loader, index, "c/Missing.class");
+      assertSameResource(loader, index, "Missing.class");
+      assertNotNull(index.getResource("java/lang/Object.class"));
+      assertNotNull(index.getResource(AsmUtils.getClassResourceName(ClasspathIndexTest.class.getName())));
+    } finally {
+      // Java 7 supports closing URLClassLoader, so check for Closeable interface:
+      if (loader instanceof Closeable) {
+        ((Closeable) loader).close();
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownClassLoader() throws Exception {
+    final ClassLoader loader = new ClassLoader(ClassLoader.getSystemClassLoader()) {};
+    assertNull(ClasspathIndex.create(loader));
+  }
+
+}
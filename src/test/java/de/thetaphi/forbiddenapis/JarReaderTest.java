@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class JarReaderTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private final JarReader.InflaterPool inflaters = new JarReader.InflaterPool();
+
+  private static void addEntry(ZipOutputStream out, String name, byte[] data, boolean stored) throws IOException {
+    final ZipEntry entry = new ZipEntry(name);
+    if (stored) {
+      final CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(data.length);
+      entry.setCompressedSize(data.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  @Test
+  public void testReadEntries() throws Exception {
+    final Random random = new Random(42L);
+    final byte[] small = "Hello World!".getBytes("UTF-8"), empty = new byte[0], large = new byte[100000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) random.nextInt(16); // compressible
+    }
+    final File file = tmp.newFile("test.jar");
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      addEntry(out, "stored/Small.class", small, true);
+      addEntry(out, "deflated/Small.class", small, false);
+      addEntry(out, "stored/Large.class", large, true);
+      addEntry(out, "deflated/Large.class", large, false);
+      addEntry(out, "deflated/Empty.class", empty, false);
+      addEntry(out, "\u00e4\u00f6\u00fc/Umlauts.class", small, false);
+    } finally {
+      out.close();
+    }
+
+    final JarReader reader = JarReader.open(file, inflaters);
+    try {
+      assertEquals(new HashSet<String>(Arrays.asList("stored/Small.class", "deflated/Small.class", "stored/Large.class",
+          "deflated/Large.class", "deflated/Empty.class", "\u00e4\u00f6\u00fc/Umlauts.class")), reader.getNames());
+      assertArrayEquals(small, reader.read("stored/Small.class"));
+      assertArrayEquals(small, reader.read("deflated/Small.class"));
+      assertArrayEquals(large, reader.read("stored/Large.class"));
+      assertArrayEquals(large, reader.read("deflated/Large.class"));
+      assertArrayEquals(empty, reader.read("deflated/Empty.class"));
+      assertArrayEquals(small, reader.read("\u00e4\u00f6\u00fc/Umlauts.class"));
+      // inflaters are reused:
+      assertArrayEquals(large, reader.read("deflated/Large.class"));
+      assertNull(reader.read("Missing.class"));
+    } finally {
+      inflaters.close();
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    final File file = tmp.newFile("test.jar");
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      addEntry(out, "Test.class", new byte[] { 1, 2, 3 }, false);
+    } finally {
+      out.close();
+    }
+    final JarReader reader = JarReader.open(file, inflaters);
+    assertArrayEquals(new byte[] { 1, 2, 3 }, reader.read("Test.class"));
+    reader.close();
+    try {
+      reader.read("Test.class");
+      fail("Should fail on closed reader");
+    } catch (IOException ioe) {
+      // pass
+    }
+    // the file is no longer mapped, so it can be deleted (also on Windows):
+    assertTrue(file.delete());
+  }
+
+  /** Writes a JAR file with one entry, whose uncompressed size in the central directory is replaced by the given one. */
+  private File writeInvalidSize(String name, boolean stored, int size) throws IOException {
+    final File file = tmp.newFile(name);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ZipOutputStream out = new ZipOutputStream(bytes);
+    try {
+      addEntry(out, "Test.class", new byte[] { 1, 2, 3 }, stored);
+    } finally {
+      out.close();
+    }
+    final ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    for (int pos = 0; pos < data.limit() - 4; pos++) {
+      if (data.getInt(pos) == 0x02014b50) {
+        data.putInt(pos + 24, size);
+      }
+    }
+    final FileOutputStream fout = new FileOutputStream(file);
+    try {
+      fout.write(data.array());
+    } finally {
+      fout.close();
+    }
+    return file;
+  }
+
+  @Test
+  public void testInvalidSizes() throws Exception {
+    for (final File file : Arrays.asList(writeInvalidSize("stored.jar", true, 100), writeInvalidSize("deflated.jar", false, Integer.MAX_VALUE),
+        writeInvalidSize("zip64.jar", false, -1))) {
+      try {
+        JarReader.open(file, inflaters);
+        fail("Should fail on invalid size: " + file);
+      } catch (ZipException ze) {
+        // pass
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidFile() throws Exception {
+    final File file = tmp.newFile("invalid.jar");
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[100]);
+    } finally {
+      out.close();
+    }
+    try {
+      JarReader.open(file, inflaters);
+      fail("Should fail on invalid ZIP file");
+    } catch (ZipException ze) {
+      // pass
+    }
+  }
+
+}
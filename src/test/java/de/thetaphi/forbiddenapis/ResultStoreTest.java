@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ResultStoreTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Map<String,byte[]> hashes(String... namesAndContents) throws Exception {
+    final Map<String,byte[]> hashes = new LinkedHashMap<String,byte[]>();
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      hashes.put(namesAndContents[i], ResultStore.hash(namesAndContents[i + 1].getBytes("UTF-8")));
+    }
+    return hashes;
+  }
+
+  private static Checker.BufferedLogger log(String error) {
+    final Checker.BufferedLogger log = new Checker.BufferedLogger();
+    log.error(error);
+    log.violations = 1;
+    return log;
+  }
+
+  private void storeResults(File file, String key) throws Exception {
+    final ResultStore results = ResultStore.open(file, key);
+    results.setClasses(hashes("a.A", "a", "a.B", "b", "a.C", "c"));
+    assertNull(results.getStoredResult("a.A"));
+    results.addResult("a.A", Arrays.asList("a.B"), false, log("error in A"));
+    results.addResult("a.B", Collections.<String>emptyList(), false, log("error in B"));
+    results.addResult("a.C", Collections.<String>emptyList(), true, log("error in C"));
+    assertTrue(results.store());
+  }
+
+  @Test
+  public void testUnchangedClasses() throws Exception {
+    final File file = new File(tmp.getRoot(), "results");
+    storeResults(file, "key");
+
+    final ResultStore results = ResultStore.open(file, "key");
+    results.setClasses(hashes("a.A", "a", "a.B", "b", "a.C", "c"));
+    for (final String clazz : Arrays.asList("a.A", "a.B", "a.C")) {
+      final Checker.BufferedLogger log = results.getStoredResult(clazz);
+      assertNotNull(log);
+      assertEquals(1, log.violations);
+      assertEquals(1, log.size());
+      assertEquals("error in " + clazz.substring(2), log.getMessage(0));
+    }
+    assertFalse("nothing changed", results.store());
+  }
+
+  @Test
+  public void testChangedClasses() throws Exception {
+    final File file = new File(tmp.getRoot(), "results");
+    storeResults(file, "key");
+
+    // a dependency of A changed:
+    ResultStore results = ResultStore.open(file, "key");
+    results.setClasses(hashes("a.A", "a", "a.B", "changed", "a.C", "c"));
+    assertNull(results.getStoredResult("a.A"));
+    assertNull(results.getStoredResult("a.B"));
+    assertNotNull(results.getStoredResult("a.C"));
+
+    // a class was added, C had missing classes:
+    results = ResultStore.open(file, "key");
+    results.setClasses(hashes("a.A", "a", "a.B", "b", "a.C", "c", "a.D", "d"));
+    assertNotNull(results.getStoredResult("a.A"));
+    assertNull(results.getStoredResult("a.C"));
+
+    // a dependency was removed:
+    results = ResultStore.open(file, "key");
+    results.setClasses(hashes("a.A", "a", "a.C", "c"));
+    assertNull(results.getStoredResult("a.A"));
+    assertNotNull(results.getStoredResult("a.C"));
+  }
+
+  @Test
+  public void testInvalidFiles() throws Exception {
+    final File file = new File(tmp.getRoot(), "results");
+    storeResults(file, "key");
+    ResultStore results = ResultStore.open(file, "other");
+    results.setClasses(hashes("a.A", "a", "a.B", "b", "a.C", "c"));
+    assertNull("other key", results.getStoredResult("a.B"));
+
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[100]);
+    } finally {
+      out.close();
+    }
+    results = ResultStore.open(file, "key");
+    results.setClasses(hashes("a.A", "a", "a.B", "b", "a.C", "c"));
+    assertNull("invalid file", results.getStoredResult("a.B"));
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+public final class RuntimeImageReaderTest {
+
+  @Test
+  public void testReadRuntimeClasses() throws Exception {
+    final RuntimeImageReader image = RuntimeImageReader.open(ClassLoader.getSystemClassLoader());
+    assumeNotNull(image); // only Java 9+
+    assertEquals("java.base", image.getModule("java/lang/String.class"));
+    assertEquals("java.sql", image.getModule("java/sql/Connection.class"));
+    assertNull(image.getModule("de/thetaphi/forbiddenapis/Checker.class"));
+    assertNull(image.read("java.base", "java/lang/DoesNotExist.class"));
+
+    final ClassReader cr = AsmUtils.readAndPatchRuntimeClass(image.read("java.base", "java/lang/String.class"));
+    assertEquals("java/lang/String", cr.getClassName());
+    assertEquals("java/lang/Object", cr.getSuperName());
+  }
+
+  @Test
+  public void testVisibleModules() throws Exception {
+    final ClassLoader loader = new URLClassLoader(new URL[0], null);
+    final RuntimeImageReader image = RuntimeImageReader.open(loader);
+    assumeNotNull(image); // only Java 9+
+    assertEquals("java.base", image.getModule("java/lang/String.class"));
+    // modules of the platform class loader are not visible without parent:
+    assertNull(image.getModule("java/sql/Connection.class"));
+  }
+
+}
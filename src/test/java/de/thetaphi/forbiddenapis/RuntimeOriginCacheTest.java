@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class RuntimeOriginCacheTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testRuntimePaths() throws Exception {
+    final File runtime = tmp.newFolder("jre"), other = tmp.newFolder("lib");
+    final TreeSet<String> runtimePaths = new TreeSet<String>();
+    runtimePaths.add(runtime.getCanonicalPath() + File.separator);
+    final RuntimeOriginCache cache = new RuntimeOriginCache(runtimePaths);
+
+    assertTrue(cache.isRuntimeJar(new File(runtime, "rt.jar")));
+    assertTrue(cache.isRuntimeJar(new File(runtime, "rt.jar")));
+    assertFalse(cache.isRuntimeJar(new File(other, "rt.jar")));
+    assertTrue(cache.isRuntimeFile(runtime, "Foo.class"));
+    assertTrue(cache.isRuntimeFile(runtime, "a/b/Bar.class"));
+    assertFalse(cache.isRuntimeFile(other, "Foo.class"));
+    assertFalse(cache.isRuntimeFile(other, "a/Foo.class"));
+    // a sibling directory with the runtime directory's name as prefix:
+    assertFalse(cache.isRuntimeFile(new File(tmp.getRoot(), "jre2"), "Foo.class"));
+    assertTrue(cache.toString(), cache.toString().endsWith("5 paths canonicalized, 3 canonicalizations avoided"));
+  }
+
+  @Test
+  public void testModules() {
+    final RuntimeOriginCache cache = new RuntimeOriginCache(new TreeSet<String>());
+    assertTrue(cache.isRuntimeModule("java.base"));
+    assertTrue(cache.isRuntimeModule("jdk.unsupported"));
+    assertFalse(cache.isRuntimeModule("foo.bar"));
+    assertFalse(cache.isRuntimeModule(null));
+  }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import org.junit.Test;
+
+public final class RuntimePackageIndexTest {
+
+  @Test
+  public void testBootLayer() {
+    final RuntimePackageIndex index = RuntimePackageIndex.fromBootLayer();
+    assumeNotNull(index); // only works on Java 9+
+    assertTrue(index.mayBeRuntimeClass("java/lang/Object"));
+    assertTrue(index.mayBeRuntimeClass("java/util/concurrent/ConcurrentHashMap"));
+    assertFalse(index.mayBeRuntimeClass("de/thetaphi/forbiddenapis/Checker"));
+    assertFalse(index.mayBeRuntimeClass("Foo"));
+  }
+
+}
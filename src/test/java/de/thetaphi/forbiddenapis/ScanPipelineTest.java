@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+public final class ScanPipelineTest {
+
+  /** classes to check, only visible to the checker as classes to check, not on its classpath */
+  @SuppressWarnings("serial")
+  static class Sub extends ArrayList<Object> {}
+
+  static class User {
+    int use(Sub sub) {
+      return sub.size();
+    }
+  }
+
+  /** renamed to {@link User}, so it's a different class file of the same class */
+  static class OtherUser {
+    int use(Sub sub) {
+      return 0;
+    }
+  }
+
+  private static byte[] getBytecode(Class<?> clazz) throws IOException {
+    final String name = clazz.getName();
+    return AsmUtils.readStream(clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class"));
+  }
+
+  /** Returns the bytecode of the given class, renamed to the other class. */
+  private static byte[] getRenamedBytecode(Class<?> clazz, Class<?> newName) throws IOException {
+    final ClassWriter writer = new ClassWriter(0);
+    new ClassReader(getBytecode(clazz)).accept(new ClassRemapper(writer,
+        new SimpleRemapper(Type.getInternalName(clazz), Type.getInternalName(newName))), 0);
+    return writer.toByteArray();
+  }
+
+  private Checker newChecker(EnumSet<Checker.Option> options, int threads, final List<String> errors) throws Exception {
+    final Logger logger = new Logger() {
+      @Override
+      public void error(String msg) {
+        errors.add(msg);
+      }
+
+      @Override
+      public void warn(String msg) {
+        errors.add("WARN: " + msg);
+      }
+
+      @Override
+      public void info(String msg) {}
+    };
+    // only the runtime classes are visible:
+    final ClassLoader loader = new URLClassLoader(new URL[0], null);
+    final Checker checker = new Checker(logger, loader, options);
+    assumeTrue("This test only works with a supported JDK (see docs)", checker.isSupportedJDK);
+    checker.setThreads(threads);
+    checker.parseSignaturesString("java.util.ArrayList#size() @ Foobar");
+    return checker;
+  }
+
+  private List<String> check(EnumSet<Checker.Option> options, int threads) throws Exception {
+    final List<String> errors = new ArrayList<String>();
+    final Checker checker = newChecker(options, threads, errors);
+    checker.addClassToCheck(new ByteArrayInputStream(getBytecode(User.class)), User.class.getName());
+    if (options.contains(PIPELINED_SCAN)) {
+      // the subclass is read slowly, so the lookup while scanning the user is deferred:
+      final byte[] bytecode = getBytecode(Sub.class);
+      checker.pendingClassesToCheck.add(new ClassSource() {
+        @Override
+        public byte[] read() throws IOException {
+          try {
+            Thread.sleep(100L);
+          } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+          }
+          return bytecode;
+        }
+
+        @Override
+        public String toString() {
+          return Sub.class.getName();
+        }
+      });
+    } else {
+      checker.addClassToCheck(new ByteArrayInputStream(getBytecode(Sub.class)), Sub.class.getName());
+    }
+    // duplicates are only checked once:
+    checker.addClassToCheck(new ByteArrayInputStream(getBytecode(User.class)), User.class.getName());
+    checker.run();
+    return errors;
+  }
+
+  @Test
+  public void testSameResults() throws Exception {
+    final List<String> expected = check(EnumSet.of(FAIL_ON_MISSING_CLASSES), 1);
+    assertEquals(2, expected.size());
+    assertEquals(expected, check(EnumSet.of(FAIL_ON_MISSING_CLASSES, PIPELINED_SCAN), 1));
+    assertEquals(expected, check(EnumSet.of(FAIL_ON_MISSING_CLASSES, PIPELINED_SCAN), 8));
+  }
+
+  /** Checks the given class files of {@link User} (first one only has the violation) with {@link Sub} after them. */
+  private List<String> checkDuplicates(EnumSet<Checker.Option> options, int threads, byte[]... users) throws Exception {
+    final List<String> errors = new ArrayList<String>();
+    final Checker checker = newChecker(options, threads, errors);
+    for (final byte[] bytecode : users) {
+      checker.addClassToCheck(new ByteArrayInputStream(bytecode), User.class.getName());
+    }
+    checker.addClassToCheck(new ByteArrayInputStream(getBytecode(Sub.class)), Sub.class.getName());
+    checker.run();
+    return errors;
+  }
+
+  @Test
+  public void testDuplicatesFirstWins() throws Exception {
+    final byte[] user = getBytecode(User.class), otherUser = getRenamedBytecode(OtherUser.class, User.class);
+    assertEquals(2, checkDuplicates(EnumSet.of(FAIL_ON_MISSING_CLASSES), 1, user, otherUser).size());
+    assertEquals(0, checkDuplicates(EnumSet.of(FAIL_ON_MISSING_CLASSES), 1, otherUser, user).size());
+    for (final int threads : new int[] { 1, 8 }) {
+      for (final EnumSet<Checker.Option> options : Arrays.asList(EnumSet.of(FAIL_ON_MISSING_CLASSES),
+          EnumSet.of(FAIL_ON_MISSING_CLASSES, PIPELINED_SCAN), EnumSet.of(FAIL_ON_MISSING_CLASSES, STREAMING_SCAN))) {
+        assertEquals(options + " " + threads, 2, checkDuplicates(options, threads, user, otherUser).size());
+        assertEquals(options + " " + threads, 0, checkDuplicates(options, threads, otherUser, user).size());
+      }
+    }
+  }
+
+  @Test
+  public void testRunTwice() throws Exception {
+    for (final EnumSet<Checker.Option> options : Arrays.asList(EnumSet.of(FAIL_ON_MISSING_CLASSES),
+        EnumSet.of(FAIL_ON_MISSING_CLASSES, STREAMING_SCAN), EnumSet.of(FAIL_ON_MISSING_CLASSES, PIPELINED_SCAN))) {
+      final List<String> errors = new ArrayList<String>();
+      final Checker checker = newChecker(options, 1, errors);
+      checker.addClassToCheck(new ByteArrayInputStream(getBytecode(User.class)), User.class.getName());
+      checker.addClassToCheck(new ByteArrayInputStream(getBytecode(Sub.class)), Sub.class.getName());
+      checker.run();
+      checker.run();
+      assertEquals(options.toString(), 4, errors.size());
+      assertEquals(options.toString(), errors.subList(0, 2), errors.subList(2, 4));
+    }
+    // the pipeline releases the class files:
+    final Checker checker = newChecker(EnumSet.of(FAIL_ON_MISSING_CLASSES, PIPELINED_SCAN), 8, new ArrayList<String>());
+    checker.addClassToCheck(new ByteArrayInputStream(getBytecode(User.class)), User.class.getName());
+    checker.addClassToCheck(new ByteArrayInputStream(getBytecode(Sub.class)), Sub.class.getName());
+    checker.run();
+    try {
+      checker.run();
+      fail("Should fail after scanning in pipelined mode");
+    } catch (IllegalStateException ise) {
+      // pass
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class SignatureCacheFileTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private final SymbolTable symbols = new SymbolTable();
+
+  private ClassSignature parse(Class<?> clazz, boolean isRuntimeClass) throws Exception {
+    final InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+    try {
+      return new ClassSignature(AsmUtils.readAndPatchClass(AsmUtils.readStream(in)), isRuntimeClass, false, symbols);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void assertSameSignature(ClassSignature expected, ClassSignature actual) {
+    assertEquals(expected.className, actual.className);
+    assertEquals(expected.superName, actual.superName);
+    assertArrayEquals(expected.interfaces, actual.interfaces);
+    assertEquals(expected.isRuntimeClass, actual.isRuntimeClass);
+    assertArrayEquals(expected.getDeclaredMethodNames(), actual.getDeclaredMethodNames());
+    assertArrayEquals(expected.getDeclaredMethodDescriptors(), actual.getDeclaredMethodDescriptors());
+    assertArrayEquals(expected.getDeclaredFields(), actual.getDeclaredFields());
+    assertArrayEquals(expected.getSignaturePolymorphicMethods(), actual.getSignaturePolymorphicMethods());
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    final ClassSignature checker = parse(Checker.class, false), cache = parse(SignatureCacheFile.class, true);
+    final File file = new File(tmp.getRoot(), SignatureCacheFile.getFileName("test", "key"));
+    SignatureCacheFile.write(file, "key", Arrays.asList(checker, cache));
+
+    final SignatureCacheFile stored = SignatureCacheFile.open(file, "key");
+    assertNotNull(stored);
+    try {
+      assertEquals(new HashSet<String>(Arrays.asList(checker.className, cache.className)), stored.getClassNames());
+      assertSameSignature(checker, stored.get(checker.className, symbols));
+      assertSameSignature(cache, stored.get(cache.className, symbols));
+      assertTrue(stored.get(checker.className, symbols).hasMethod("close", "()V"));
+      assertNull(stored.get("java/lang/DoesNotExist", symbols));
+    } finally {
+      stored.close();
+    }
+    // the file can be replaced after closing (also on Windows):
+    SignatureCacheFile.write(file, "key", Collections.singletonList(checker));
+  }
+
+  @Test
+  public void testInvalidFiles() throws Exception {
+    final File file = new File(tmp.getRoot(), "test.sigs");
+    assertNull("missing file", SignatureCacheFile.open(file, "key"));
+
+    SignatureCacheFile.write(file, "key", Collections.singletonList(parse(Checker.class, false)));
+    assertNull("other key", SignatureCacheFile.open(file, "other"));
+
+    // the number of strings follows the key:
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(16 + "key".length());
+      raf.writeInt(Integer.MAX_VALUE);
+    } finally {
+      raf.close();
+    }
+    assertNull("invalid length", SignatureCacheFile.open(file, "key"));
+
+    SignatureCacheFile.write(file, "key", Collections.singletonList(parse(Checker.class, false)));
+    raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() / 2);
+    } finally {
+      raf.close();
+    }
+    assertNull("truncated file", SignatureCacheFile.open(file, "key"));
+
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[100]);
+    } finally {
+      out.close();
+    }
+    assertNull("invalid file", SignatureCacheFile.open(file, "key"));
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class SignatureCacheTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private final SymbolTable symbols = new SymbolTable();
+  private final JarReader.InflaterPool inflaters = new JarReader.InflaterPool();
+
+  private static byte[] getClassFile(Class<?> clazz) throws IOException {
+    final InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+    try {
+      return AsmUtils.readStream(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private ClasspathIndex.Root writeJar(File file, Class<?>... classes) throws IOException {
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (final Class<?> clazz : classes) {
+        out.putNextEntry(new ZipEntry(AsmUtils.getClassResourceName(clazz.getName())));
+        out.write(getClassFile(clazz));
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+    final ClasspathIndex.Root root = new ClasspathIndex.Root(file, true);
+    root.reader = JarReader.open(file, inflaters);
+    return root;
+  }
+
+  @Test
+  public void testJarClasses() throws Exception {
+    final File dir = new File(tmp.getRoot(), "cache"), jar = tmp.newFile("test.jar");
+    final String clazz = Checker.class.getName();
+    ClasspathIndex.Root root = writeJar(jar, Checker.class);
+
+    SignatureCache cache = SignatureCache.open(dir, symbols);
+    assertNull(cache.getJarClass(root, clazz));
+    cache.addJarClass(root, new ClassSignature(AsmUtils.readAndPatchClass(root.read(AsmUtils.getClassResourceName(clazz))), false, false, symbols));
+    assertEquals(1, cache.store());
+
+    cache = SignatureCache.open(dir, symbols);
+    final ClassSignature stored = cache.getJarClass(root, clazz);
+    assertNotNull(stored);
+    assertEquals("de/thetaphi/forbiddenapis/Checker", stored.className);
+    assertFalse(stored.isRuntimeClass);
+    assertTrue(stored.hasMethod("close", "()V"));
+    assertEquals(0, cache.store());
+    root.reader.close();
+
+    // a changed JAR file must not use the stored classes:
+    root = writeJar(jar, Checker.class, SignatureCache.class);
+    cache = SignatureCache.open(dir, symbols);
+    assertNull(cache.getJarClass(root, clazz));
+    assertEquals(0, cache.store());
+    root.reader.close();
+    inflaters.close();
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Method;
+
+/** Compares the heap footprint of {@link ClassSignature} with the previous layout ({@code HashSet<Method>} and
+ * {@code HashSet<String>}): once with only the class header, like related classes only needed for their hierarchy
+ * (the members are read again from their origin on first access), and once with the members parsed (sorted arrays
+ * of interned names). The classes are read from the given JAR files, by default from all JAR files of the classpath. */
+public final class ClassSignatureFootprintBenchmark {
+
+  private final List<byte[]> classes = new ArrayList<byte[]>();
+
+  void addJar(File jar) throws IOException {
+    final ZipFile zip = new ZipFile(jar);
+    try {
+      final Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".class")) {
+          final InputStream in = zip.getInputStream(entry);
+          try {
+            classes.add(AsmUtils.readStream(in));
+          } finally {
+            in.close();
+          }
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /** The previous layout: header and the sets of all members. */
+  static Object[] createLegacy(ClassReader reader) {
+    final String className = reader.getClassName();
+    final Set<Method> methods = new HashSet<Method>();
+    final Set<String> fields = new HashSet<String>(), signaturePolymorphicMethods = new HashSet<String>();
+    reader.accept(new ClassVisitor(Opcodes.ASM6) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        methods.add(new Method(name, desc));
+        if (className.startsWith(Constants.SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
+            (access & Opcodes.ACC_VARARGS) != 0 && (access & Opcodes.ACC_NATIVE) != 0 &&
+            Constants.SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)) {
+          signaturePolymorphicMethods.add(name);
+        }
+        return null;
+      }
+
+      @Override
+      public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        fields.add(name);
+        return null;
+      }
+    }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return new Object[] { className, reader.getSuperName(), reader.getInterfaces(), methods, fields, signaturePolymorphicMethods };
+  }
+
+  /** Only the class header, the members are read again from the origin (like a class of a classpath entry). */
+  static ClassSignature createHeaderOnly(ClassReader reader, final byte[] bytecode, SymbolTable symbols) {
+    final String resourceName = reader.getClassName() + ".class";
+    return new ClassSignature(reader, false, new ClassSource() {
+      @Override
+      public byte[] read() {
+        return bytecode; // already retained by the benchmark, like a mapped JAR file
+      }
+      
+      @Override
+      public String toString() {
+        return resourceName;
+      }
+    }, symbols);
+  }
+  
+  /** The class header with the members parsed. */
+  static ClassSignature createParsed(ClassReader reader, SymbolTable symbols) {
+    return new ClassSignature(reader, false, false, symbols);
+  }
+
+  @SuppressForbidden
+  static long usedHeap() throws InterruptedException {
+    final Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100L);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /** Measures the given layout: 0 = previous layout, 1 = header only, 2 = parsed members. */
+  long measure(int layout) throws InterruptedException {
+    final List<Object> retained = new ArrayList<Object>(classes.size());
+    final long before = usedHeap();
+    final SymbolTable symbols = new SymbolTable();
+    for (final byte[] bytecode : classes) {
+      final ClassReader reader = AsmUtils.readAndPatchClass(bytecode);
+      switch (layout) {
+        case 0: retained.add(createLegacy(reader)); break;
+        case 1: retained.add(createHeaderOnly(reader, bytecode, symbols)); break;
+        default: retained.add(createParsed(reader, symbols)); break;
+      }
+    }
+    final long used = usedHeap() - before;
+    if (retained.size() != classes.size()) {
+      throw new AssertionError();
+    }
+    return used;
+  }
+
+  @SuppressForbidden
+  void run() throws InterruptedException {
+    System.err.println(String.format(Locale.ENGLISH, "Measuring heap footprint of %d class signatures...", classes.size()));
+    for (int round = 1; round <= 3; round++) {
+      final long legacy = measure(0), header = measure(1), parsed = measure(2);
+      System.err.println(String.format(Locale.ENGLISH,
+          "Round %d: HashSet layout: %,d bytes (%d per class), header only: %,d bytes (%d per class), sorted arrays: %,d bytes (%d per class)",
+          round, legacy, legacy / classes.size(), header, header / classes.size(), parsed, parsed / classes.size()));
+    }
+  }
+
+  public static void main(String... args) throws Exception {
+    final ClassSignatureFootprintBenchmark benchmark = new ClassSignatureFootprintBenchmark();
+    if (args.length > 0) {
+      for (final String jar : args) {
+        benchmark.addJar(new File(jar));
+      }
+    } else {
+      final StringTokenizer st = new StringTokenizer(System.getProperty("java.class.path"), File.pathSeparator);
+      while (st.hasMoreTokens()) {
+        final File f = new File(st.nextToken());
+        if (f.isFile() && f.getName().endsWith(".jar")) {
+          benchmark.addJar(f);
+        }
+      }
+    }
+    benchmark.run();
+  }
+
+}
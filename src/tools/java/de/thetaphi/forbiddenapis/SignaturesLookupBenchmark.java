@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.objectweb.asm.commons.Method;
+
+/** Compares lookups of method signatures in the structured table of {@link Signatures}
+ * against the previous implementation, a {@code HashMap<String,String>} with concatenated keys.
+ * The probes are all methods of some commonly used runtime classes, so most of them are misses. */
+public final class SignaturesLookupBenchmark {
+
+  static final String[] PROBE_CLASSES = {
+    "java.lang.Object", "java.lang.String", "java.lang.StringBuilder", "java.lang.Integer", "java.lang.System",
+    "java.lang.Thread", "java.io.PrintStream", "java.io.File", "java.util.ArrayList", "java.util.HashMap",
+    "java.util.Collections", "java.util.Arrays", "java.util.Locale", "java.text.SimpleDateFormat"
+  };
+
+  static final int ROUNDS = 10, ITERATIONS = 500;
+
+  /** the legacy table (keys like "m\0owner\0name(desc)") */
+  private final Map<String,String> legacy = new HashMap<String,String>();
+  private final Signatures signatures;
+  private final List<String> owners = new ArrayList<String>();
+  private final List<Method> methods = new ArrayList<Method>();
+
+  SignaturesLookupBenchmark(Checker checker) throws Exception {
+    this.signatures = checker.forbiddenSignatures;
+    for (final Map.Entry<String,Map<String,Map<String,String>>> owner : signatures.methodSignatures.entrySet()) {
+      for (final Map.Entry<String,Map<String,String>> name : owner.getValue().entrySet()) {
+        for (final Map.Entry<String,String> desc : name.getValue().entrySet()) {
+          legacy.put("m\000" + owner.getKey() + '\000' + new Method(name.getKey(), desc.getKey()), desc.getValue());
+        }
+      }
+    }
+    for (final String clazz : PROBE_CLASSES) {
+      final ClassSignature c = checker.getClassFromClassLoader(clazz);
+      for (final Method m : c.getMethods()) {
+        owners.add(c.className);
+        methods.add(m);
+      }
+    }
+  }
+
+  private int runLegacy() {
+    int hits = 0;
+    for (int i = 0, c = owners.size(); i < c; i++) {
+      if (legacy.get("m\000" + owners.get(i) + '\000' + methods.get(i)) != null) {
+        hits++;
+      }
+    }
+    return hits;
+  }
+
+  private int runStructured() {
+    int hits = 0;
+    for (int i = 0, c = owners.size(); i < c; i++) {
+      final Method m = methods.get(i);
+      if (signatures.checkMethod(owners.get(i), m.getName(), m.getDescriptor()) != null) {
+        hits++;
+      }
+    }
+    return hits;
+  }
+
+  @SuppressForbidden
+  void run() {
+    System.err.println(String.format(Locale.ENGLISH, "%d forbidden methods, %d probes per iteration",
+        legacy.size(), owners.size()));
+    for (int round = 1; round <= ROUNDS; round++) {
+      int hitsLegacy = 0, hitsStructured = 0;
+      long t = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        hitsLegacy += runLegacy();
+      }
+      final long legacyNanos = System.nanoTime() - t;
+      t = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        hitsStructured += runStructured();
+      }
+      final long structuredNanos = System.nanoTime() - t;
+      if (hitsLegacy != hitsStructured) {
+        throw new AssertionError("Both implementations must return same results.");
+      }
+      final double probes = (double) ITERATIONS * owners.size();
+      System.err.println(String.format(Locale.ENGLISH,
+          "Round %2d: HashMap<String,String>: %6.1f ns/lookup, structured table: %6.1f ns/lookup (%d hits)",
+          round, legacyNanos / probes, structuredNanos / probes, hitsStructured / ITERATIONS));
+    }
+  }
+
+  public static void main(String... args) throws Exception {
+    final Checker checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader());
+    final String version = (args.length > 0) ? args[0] : "1.8";
+    checker.addBundledSignatures("jdk-unsafe", version);
+    checker.addBundledSignatures("jdk-deprecated", version);
+    checker.addBundledSignatures("jdk-system-out", null);
+    checker.addBundledSignatures("jdk-reflection", null);
+    new SignaturesLookupBenchmark(checker).run();
+  }
+
+}